@@ -0,0 +1,132 @@
+package ImageHoster.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Set of strings that answers "definitely absent" or "maybe present" in a fixed amount of memory. It never forgets a
+ * string that was added, and wrongly answers "maybe" for a string that was not with a probability that grows with the
+ * number of strings added. It is sized for an expected number of strings and a false positive rate at that number.
+ * <p>
+ * Adding and looking up set and read single bits atomically, so it needs no lock.
+ */
+public class BloomFilter {
+    private static final double LN2 = Math.log(2);
+    //The bits of a value are h1 + i * h2 for each of the hashes, which is as good as independent hash functions only
+    // if h1 and h2 are independent, so they are hashed from different offset bases
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long SECOND_OFFSET_BASIS = 0x9e3779b97f4a7c15L;
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final AtomicLong added = new AtomicLong();
+
+    /**
+     * @param expectedInsertions - long, number of strings the filter is sized for
+     * @param falsePositiveRate  - double, probability of a wrong "maybe" once that many strings are added
+     */
+    public BloomFilter(final long expectedInsertions, final double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("The false positive rate must be between 0 and 1");
+        }
+        final long insertions = Math.max(1, expectedInsertions);
+        //Optimal number of bits and of hash functions for the rate, rounded up to whole words
+        final long optimalBits = (long) Math.ceil(-insertions * Math.log(falsePositiveRate) / (LN2 * LN2));
+        final int words = (int) Math.min(Integer.MAX_VALUE - 8, (Math.max(64, optimalBits) + 63) / 64);
+        bits = new AtomicLongArray(words);
+        bitCount = (long) words * 64;
+        hashCount = Math.max(1, (int) Math.round((double) bitCount / insertions * LN2));
+    }
+
+    public void add(final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        final long h1 = hash(bytes, FNV_OFFSET_BASIS);
+        final long h2 = hash(bytes, SECOND_OFFSET_BASIS) | 1;
+        boolean changed = false;
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = Math.floorMod(h1 + i * h2, bitCount);
+            final int word = (int) (bit >>> 6);
+            final long mask = 1L << bit;
+            long current;
+            do {
+                current = bits.get(word);
+                if ((current & mask) != 0) {
+                    break;
+                }
+                changed = true;
+            } while (!bits.compareAndSet(word, current, current | mask));
+        }
+        if (changed) {
+            added.incrementAndGet();
+        }
+    }
+
+    /**
+     * Whether the value may have been added.
+     *
+     * @param value - String
+     *
+     * @return boolean, false if the value was definitely never added
+     */
+    public boolean mightContain(final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        final long h1 = hash(bytes, FNV_OFFSET_BASIS);
+        final long h2 = hash(bytes, SECOND_OFFSET_BASIS) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Number of distinct values added, not counting values whose bits were all set already.
+     *
+     * @return long
+     */
+    public long approximateSize() {
+        return added.get();
+    }
+
+    /**
+     * Memory taken by the bits of the filter.
+     *
+     * @return long, in bytes
+     */
+    public long sizeInBytes() {
+        return bitCount / 8;
+    }
+
+    public int hashCount() {
+        return hashCount;
+    }
+
+    /**
+     * Probability of a wrong "maybe" with the values added so far.
+     *
+     * @return double
+     */
+    public double expectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-hashCount * (double) added.get() / bitCount), hashCount);
+    }
+
+    //64-bit FNV-1a of the bytes from the given offset basis, mixed with the finalizer of MurmurHash3 so every bit
+    // depends on every byte
+    private static long hash(final byte[] bytes, final long offsetBasis) {
+        long hash = offsetBasis;
+        for (final byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
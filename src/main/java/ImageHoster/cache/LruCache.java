@@ -0,0 +1,106 @@
+package ImageHoster.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded map that evicts its least recently used entry when it is full, and counts its hits, misses and evictions.
+ * Every operation locks the whole cache, which costs little next to the database round trip a hit saves.
+ *
+ * @param <K> - key type
+ * @param <V> - value type
+ */
+public class LruCache<K, V> {
+    private final Map<K, V> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public LruCache(final int maxSize) {
+        entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+                if (size() > maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Look up a value and count a hit or a miss.
+     *
+     * @param key - K
+     *
+     * @return V, null if the key is not cached
+     */
+    public synchronized V get(final K key) {
+        final V value = entries.get(key);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    public synchronized void put(final K key, final V value) {
+        entries.put(key, value);
+    }
+
+    public synchronized void invalidate(final K key) {
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Publish the counters with the standard cache meter names, tagged with the name of the cache.
+     *
+     * @param registry - MeterRegistry
+     * @param name     - String
+     */
+    public void bindTo(final MeterRegistry registry, final String name) {
+        FunctionCounter.builder("cache.gets", this, LruCache::hitCount)
+                       .tags("cache", name, "result", "hit")
+                       .description("The number of times the cache was asked for a value it held")
+                       .register(registry);
+        FunctionCounter.builder("cache.gets", this, LruCache::missCount)
+                       .tags("cache", name, "result", "miss")
+                       .description("The number of times the cache was asked for a value it did not hold")
+                       .register(registry);
+        FunctionCounter.builder("cache.evictions", this, LruCache::evictionCount)
+                       .tags("cache", name)
+                       .description("The number of values evicted to keep the cache within its size")
+                       .register(registry);
+        Gauge.builder("cache.size", this, LruCache::size)
+             .tags("cache", name)
+             .description("The number of values in the cache")
+             .register(registry);
+    }
+}
@@ -0,0 +1,74 @@
+package ImageHoster.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.BaseSessionEventListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reports EntityManagers that stay open longer than a threshold, which is how an EntityManager that is never closed
+ * shows up. Connections held too long by anyone are reported by the pool itself through its leak detection threshold.
+ */
+@Slf4j
+@Component
+public class EntityManagerLeakDetector {
+    //Hibernate creates the session listeners itself, so the open sessions are tracked in a static registry
+    private static final Map<SessionListener, OpenSession> OPEN_SESSIONS = new ConcurrentHashMap<>();
+
+    private final Duration threshold;
+
+    public EntityManagerLeakDetector(@Value("${imagehoster.jpa.leak-detection-threshold:PT30S}")
+                                     final Duration threshold,
+                                     final MeterRegistry meterRegistry) {
+        this.threshold = threshold;
+        Gauge.builder("jpa.entitymanagers.open", OPEN_SESSIONS, Map::size)
+             .description("EntityManagers that have not been closed yet")
+             .register(meterRegistry);
+    }
+
+    //Each leaked EntityManager is reported once, with the thread that opened it
+    @Scheduled(fixedDelayString = "${imagehoster.jpa.leak-detection-interval:PT10S}")
+    public void reportLeakedEntityManagers() {
+        final long now = System.nanoTime();
+        for (final OpenSession session : OPEN_SESSIONS.values()) {
+            final long openFor = now - session.openedAt;
+            if (!session.reported && openFor > threshold.toNanos()) {
+                session.reported = true;
+                log.warn("EntityManager opened by thread {} is still open after {} ms, it may never be closed",
+                         session.threadName, Duration.ofNanos(openFor).toMillis());
+            }
+        }
+    }
+
+    /**
+     * Registered with Hibernate for every session, it records the session until the session is closed.
+     */
+    public static class SessionListener extends BaseSessionEventListener {
+        public SessionListener() {
+            OPEN_SESSIONS.put(this, new OpenSession(System.nanoTime(), Thread.currentThread().getName()));
+        }
+
+        @Override
+        public void end() {
+            OPEN_SESSIONS.remove(this);
+        }
+    }
+
+    private static final class OpenSession {
+        private final long openedAt;
+        private final String threadName;
+        private volatile boolean reported;
+
+        private OpenSession(final long openedAt, final String threadName) {
+            this.openedAt = openedAt;
+            this.threadName = threadName;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package ImageHoster.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "imagehoster.gallery")
+public class GalleryProperties {
+
+    /**
+     * Images shown per gallery page.
+     */
+    private int pageSize = 12;
+
+    /**
+     * Image pages kept rendered in memory. The least recently viewed page is dropped when the cache is full.
+     */
+    private int pageCacheSize = 500;
+
+    /**
+     * Time a rendered image page is served from memory. Changes made on this node drop the page at once, this bounds
+     * how long changes made on other nodes take to show.
+     */
+    private Duration pageCacheTtl = Duration.ofSeconds(30);
+
+    /**
+     * Comments shown per page below an image, newest first.
+     */
+    private int commentsPageSize = 20;
+
+    /**
+     * Interval at which the search index is rebuilt from the database, which brings in the images written or deleted
+     * on other nodes.
+     */
+    private Duration searchRebuildInterval = Duration.ofMinutes(15);
+}
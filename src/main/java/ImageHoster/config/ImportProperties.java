@@ -0,0 +1,21 @@
+package ImageHoster.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "imagehoster.import")
+public class ImportProperties {
+
+    /**
+     * Manifest entries imported per transaction. An interrupted import resumes after the last committed batch.
+     */
+    private int batchSize = 500;
+
+    /**
+     * Threads storing files and creating thumbnails during an import, 0 for one per processor.
+     */
+    private int parallelism = 0;
+}
@@ -0,0 +1,50 @@
+package ImageHoster.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.session.SessionProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.session.MapSession;
+import org.springframework.session.MapSessionRepository;
+import org.springframework.session.Session;
+import org.springframework.session.config.annotation.web.http.EnableSpringHttpSession;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the HTTP sessions in memory instead of in the database, for tests and single node runs. It is used when
+ * {@code imagehoster.sessions.store} is {@code memory}, and the JDBC session store configured by Spring Boot backs off.
+ * Sessions go through the same Spring Session filter either way, so the application sees no difference.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "imagehoster.sessions.store", havingValue = "memory")
+@EnableSpringHttpSession
+public class InMemorySessionConfig {
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    @Bean
+    public MapSessionRepository sessionRepository(final SessionProperties sessionProperties) {
+        final MapSessionRepository repository = new MapSessionRepository(sessions);
+        if (sessionProperties.getTimeout() != null) {
+            repository.setDefaultMaxInactiveInterval((int) sessionProperties.getTimeout().getSeconds());
+        } else {
+            repository.setDefaultMaxInactiveInterval(MapSession.DEFAULT_MAX_INACTIVE_INTERVAL_SECONDS);
+        }
+        return repository;
+    }
+
+    //Expired sessions are only dropped by the repository when they are asked for, sessions that are never used again
+    // are dropped here
+    @Scheduled(fixedDelayString = "${imagehoster.sessions.cleanup-interval:PT1M}")
+    public void deleteExpiredSessions() {
+        final int before = sessions.size();
+        sessions.values().removeIf(Session::isExpired);
+        if (sessions.size() < before) {
+            log.debug("Deleted {} expired sessions", before - sessions.size());
+        }
+    }
+}
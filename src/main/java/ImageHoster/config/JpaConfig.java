@@ -1,9 +1,15 @@
 package ImageHoster.config;
 
+import ImageHoster.sql.SqlStatementInspector;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
 
 import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
@@ -11,22 +17,38 @@ import javax.sql.DataSource;
 @Configuration
 public class JpaConfig {
 
+    //The Hibernate dialect lets read-only transactions skip dirty checking and flushing, and marks their JDBC
+    // connection read-only, so the session holds on to that connection until the transaction ends
+    //Every session reports to the EntityManagerLeakDetector when it is opened and closed, and every statement is
+    // counted and timed in the SqlStatements recordings open on its thread
+    //Inserts and updates are sent in JDBC batches of 'imagehoster.jpa.batch-size' statements
     @Bean
-    public EntityManagerFactory entityManagerFactory() {
+    public LocalContainerEntityManagerFactoryBean entityManagerFactory(
+            final DataSource dataSource, @Value("${imagehoster.jpa.batch-size:50}") final int batchSize) {
         final LocalContainerEntityManagerFactoryBean emfb = new LocalContainerEntityManagerFactoryBean();
         emfb.setPersistenceXmlLocation("classpath:META-INF/persistence.xml");
-        emfb.afterPropertiesSet();
-        return emfb.getObject();
+        emfb.setDataSource(dataSource);
+        emfb.setJpaDialect(new HibernateJpaDialect());
+        emfb.getJpaPropertyMap().put("hibernate.connection.handling_mode", "DELAYED_ACQUISITION_AND_HOLD");
+        emfb.getJpaPropertyMap().put("hibernate.session.events.auto",
+                                     JpaSessionListener.class.getName());
+        emfb.getJpaPropertyMap().put("hibernate.session_factory.statement_inspector", new SqlStatementInspector());
+        emfb.getJpaPropertyMap().put("hibernate.jdbc.batch_size", batchSize);
+        return emfb;
     }
 
+    //Transactions are declared with @Transactional on the services, the repositories use the EntityManager bound to
+    // the current transaction
     @Bean
-    public DataSource dataSource() {
-        final DriverManagerDataSource ds = new DriverManagerDataSource();
-        ds.setDriverClassName("org.postgresql.Driver");
-        ds.setUrl("jdbc:postgresql://localhost:5432/imageHoster");
-        ds.setUsername("postgres");
-        ds.setPassword("admin");
-        return ds;
+    public JpaTransactionManager transactionManager(final EntityManagerFactory entityManagerFactory) {
+        return new JpaTransactionManager(entityManagerFactory);
     }
-}
 
+    //Connection pool shared by the EntityManagerFactory, configured by the 'spring.datasource.*' properties
+    //Its pool sizes, timeouts and metrics are set with the 'spring.datasource.hikari.*' properties
+    @Bean
+    @ConfigurationProperties(prefix = "spring.datasource.hikari")
+    public HikariDataSource dataSource(final DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+}
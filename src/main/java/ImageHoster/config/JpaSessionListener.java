@@ -0,0 +1,40 @@
+package ImageHoster.config;
+
+import ImageHoster.sql.SqlStatementListener;
+import org.hibernate.BaseSessionEventListener;
+
+/**
+ * Registered with Hibernate for every session. Hibernate creates a single listener class per session, so this one
+ * passes the events on to the EntityManagerLeakDetector, which records the session until it is closed, and to the
+ * listener timing the statements of the session.
+ */
+public class JpaSessionListener extends BaseSessionEventListener {
+    private final EntityManagerLeakDetector.SessionListener leakListener =
+            new EntityManagerLeakDetector.SessionListener();
+    private final SqlStatementListener statementListener = new SqlStatementListener();
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        statementListener.jdbcExecuteStatementStart();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        statementListener.jdbcExecuteStatementEnd();
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        statementListener.jdbcExecuteBatchStart();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        statementListener.jdbcExecuteBatchEnd();
+    }
+
+    @Override
+    public void end() {
+        leakListener.end();
+    }
+}
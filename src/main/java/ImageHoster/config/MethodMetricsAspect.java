@@ -0,0 +1,108 @@
+package ImageHoster.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Times every public method of the repositories and services. Each call is recorded by the 'imagehoster.methods'
+ * timer, tagged with the layer, class and method called and the exception it threw, 'none' when it returned. Calls that
+ * threw are also counted by 'imagehoster.methods.errors'. The percentiles published for the timer are configured with
+ * the 'management.metrics.distribution.*' properties.
+ * <p>
+ * Calls from a repository or service to a method of its own class do not go through the proxy and are not timed
+ * separately.
+ */
+@Aspect
+@Component
+@RequiredArgsConstructor
+public class MethodMetricsAspect {
+    private static final String TIMER = "imagehoster.methods";
+    private static final String ERRORS = "imagehoster.methods.errors";
+
+    private final MeterRegistry meterRegistry;
+    //Meters of each method, built on its first call so the calls that follow only look the method up
+    private final Map<Method, MethodMeters> methodMeters = new ConcurrentHashMap<>();
+
+    @Around("execution(public * ImageHoster.repository..*(..))")
+    public Object timeRepository(final ProceedingJoinPoint joinPoint) throws Throwable {
+        return time(joinPoint, "repository");
+    }
+
+    @Around("execution(public * ImageHoster.service..*(..))")
+    public Object timeService(final ProceedingJoinPoint joinPoint) throws Throwable {
+        return time(joinPoint, "service");
+    }
+
+    private Object time(final ProceedingJoinPoint joinPoint, final String layer) throws Throwable {
+        final MethodMeters meters =
+                methodMeters.computeIfAbsent(((MethodSignature) joinPoint.getSignature()).getMethod(),
+                                             method -> new MethodMeters(meterRegistry, layer, method));
+        final Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            final Object result = joinPoint.proceed();
+            sample.stop(meters.timer);
+            return result;
+        } catch (final Throwable e) {
+            final ErrorMeters errorMeters = meters.errors.computeIfAbsent(e.getClass(), meters::errorMeters);
+            sample.stop(errorMeters.timer);
+            errorMeters.counter.increment();
+            throw e;
+        }
+    }
+
+    //Timer of the calls of one method that returned, and the meters of the calls that threw, per exception
+    private static final class MethodMeters {
+        private final MeterRegistry meterRegistry;
+        private final Tags tags;
+        private final Timer timer;
+        private final Map<Class<?>, ErrorMeters> errors = new ConcurrentHashMap<>();
+
+        private MethodMeters(final MeterRegistry meterRegistry, final String layer, final Method method) {
+            this.meterRegistry = meterRegistry;
+            tags = Tags.of("layer", layer, "class", method.getDeclaringClass().getSimpleName(),
+                           "method", method.getName());
+            timer = timer("none");
+        }
+
+        private ErrorMeters errorMeters(final Class<?> exceptionClass) {
+            final String exception = exceptionClass.getSimpleName();
+            return new ErrorMeters(timer(exception),
+                                   Counter.builder(ERRORS)
+                                          .description("Calls of the public methods of the repositories and services "
+                                                       + "that threw")
+                                          .tags(tags)
+                                          .tag("exception", exception)
+                                          .register(meterRegistry));
+        }
+
+        private Timer timer(final String exception) {
+            return Timer.builder(TIMER)
+                        .description("Time taken by the public methods of the repositories and services")
+                        .tags(tags)
+                        .tag("exception", exception)
+                        .register(meterRegistry);
+        }
+    }
+
+    private static final class ErrorMeters {
+        private final Timer timer;
+        private final Counter counter;
+
+        private ErrorMeters(final Timer timer, final Counter counter) {
+            this.timer = timer;
+            this.counter = counter;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package ImageHoster.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "imagehoster.passwords")
+public class PasswordProperties {
+
+    /**
+     * BCrypt cost, the log2 of the number of rounds. Each step doubles the time to hash a password. Passwords hashed
+     * with a lower cost are hashed again the next time their user logs in.
+     */
+    private int strength = 10;
+
+    /**
+     * Threads hashing passwords for logins and registrations.
+     */
+    private int threads = 2;
+
+    /**
+     * Logins and registrations waiting for a thread. Requests arriving while the queue is full are answered as busy
+     * instead of holding a request thread.
+     */
+    private int queueCapacity = 50;
+
+    /**
+     * Longest a login or registration waits for its password to be hashed, queueing included. The request thread is
+     * held while it waits, so this bounds how long a burst of logins can keep threads from serving other pages. A
+     * request that waits longer is answered as busy.
+     */
+    private Duration maxWait = Duration.ofSeconds(2);
+}
@@ -0,0 +1,93 @@
+package ImageHoster.config;
+
+import ImageHoster.sql.SqlStatements;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the SQL statements sent by each request. The number of statements per request is published as the
+ * 'imagehoster.sql.statements' summary and the time the database took to execute them as the 'imagehoster.sql.time'
+ * timer.
+ * <p>
+ * A request sending more statements than the budget, or the same statement shape more times than the repeated
+ * statement threshold, is logged as a warning with key=value fields and counted by 'imagehoster.sql.warnings'. Only
+ * statements sent through Hibernate are recorded, those of the HTTP session store are not.
+ */
+@Slf4j
+@Component
+public class SqlStatementFilter extends OncePerRequestFilter {
+    private final SqlStatementProperties sqlStatementProperties;
+    private final DistributionSummary statements;
+    private final Timer time;
+    private final Counter overBudget;
+    private final Counter repeated;
+
+    public SqlStatementFilter(final SqlStatementProperties sqlStatementProperties,
+                              final MeterRegistry meterRegistry) {
+        this.sqlStatementProperties = sqlStatementProperties;
+        statements = DistributionSummary.builder("imagehoster.sql.statements")
+                                        .description("SQL statements sent by each request")
+                                        .register(meterRegistry);
+        time = Timer.builder("imagehoster.sql.time")
+                    .description("Time the database took to execute the SQL statements of each request")
+                    .register(meterRegistry);
+        overBudget = warnings(meterRegistry, "budget");
+        repeated = warnings(meterRegistry, "repeated");
+    }
+
+    @Override
+    protected void doFilterInternal(final HttpServletRequest request, final HttpServletResponse response,
+                                    final FilterChain filterChain) throws ServletException, IOException {
+        final SqlStatements recording = SqlStatements.record();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            recording.close();
+            report(request, recording);
+        }
+    }
+
+    private void report(final HttpServletRequest request, final SqlStatements recording) {
+        statements.record(recording.getCount());
+        time.record(recording.getTimeNanos(), TimeUnit.NANOSECONDS);
+        final boolean isOverBudget = recording.getCount() > sqlStatementProperties.getStatementBudget();
+        final Map.Entry<String, Integer> mostRepeated = recording.getMostRepeatedShape();
+        final boolean isRepeated = mostRepeated != null
+                                   && mostRepeated.getValue() >= sqlStatementProperties.getRepeatedStatementThreshold();
+        if (!isOverBudget && !isRepeated) {
+            return;
+        }
+        if (isOverBudget) {
+            overBudget.increment();
+        }
+        if (isRepeated) {
+            repeated.increment();
+        }
+        log.warn("event=sql_budget_exceeded reason={} method={} uri={} statements={} budget={} time_ms={} "
+                 + "repeats={} repeated_threshold={} shape=\"{}\"",
+                 isOverBudget ? (isRepeated ? "budget,repeated" : "budget") : "repeated",
+                 request.getMethod(), request.getRequestURI(), recording.getCount(),
+                 sqlStatementProperties.getStatementBudget(), recording.getTimeMillis(), mostRepeated.getValue(),
+                 sqlStatementProperties.getRepeatedStatementThreshold(), mostRepeated.getKey().replace("\"", "\\\""));
+    }
+
+    private static Counter warnings(final MeterRegistry meterRegistry, final String reason) {
+        return Counter.builder("imagehoster.sql.warnings")
+                      .tag("reason", reason)
+                      .description("Requests that sent too many SQL statements, or the same statement too many times")
+                      .register(meterRegistry);
+    }
+}
@@ -0,0 +1,22 @@
+package ImageHoster.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "imagehoster.sql")
+public class SqlStatementProperties {
+
+    /**
+     * SQL statements a request may send before a warning is logged for it.
+     */
+    private int statementBudget = 20;
+
+    /**
+     * Times a request may send statements of the same shape before a warning is logged for it, the signature of an
+     * N+1 query.
+     */
+    private int repeatedStatementThreshold = 5;
+}
@@ -0,0 +1,17 @@
+package ImageHoster.config;
+
+import ImageHoster.storage.FileSystemImageStorage;
+import ImageHoster.storage.ImageStorage;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Paths;
+
+@Configuration
+public class StorageConfig {
+
+    @Bean
+    public ImageStorage imageStorage(final StorageProperties properties) {
+        return new FileSystemImageStorage(Paths.get(properties.getRoot()));
+    }
+}
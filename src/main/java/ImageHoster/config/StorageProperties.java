@@ -0,0 +1,34 @@
+package ImageHoster.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "imagehoster.storage")
+public class StorageProperties {
+
+    /**
+     * Directory holding the content-addressed image files.
+     */
+    private String root = "image-store";
+
+    /**
+     * Largest image accepted per upload. Bigger uploads are rejected before any byte is written to the storage.
+     */
+    private DataSize maxFileSize = DataSize.ofMegabytes(20);
+
+    /**
+     * How long a file must have been unreferenced before its bytes are deleted.
+     */
+    private Duration reclaimGracePeriod = Duration.ofMinutes(10);
+
+    /**
+     * Delay between two sweeps for unreferenced files.
+     */
+    private Duration reclaimInterval = Duration.ofMinutes(1);
+}
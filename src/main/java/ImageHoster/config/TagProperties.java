@@ -0,0 +1,21 @@
+package ImageHoster.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "imagehoster.tags")
+public class TagProperties {
+
+    /**
+     * Tags kept in memory by name. The least recently used tag is dropped when the cache is full.
+     */
+    private int cacheSize = 1000;
+
+    /**
+     * Tags listed on the top tags page, most used first.
+     */
+    private int topTagsSize = 50;
+}
@@ -0,0 +1,36 @@
+package ImageHoster.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "imagehoster.thumbnails")
+public class ThumbnailProperties {
+
+    /**
+     * Renditions to generate for every upload, as the name used in URLs mapped to the edge of the bounding square in
+     * pixels.
+     */
+    private Map<String, Integer> sizes = new LinkedHashMap<>();
+
+    /**
+     * Threads resizing uploads in the background.
+     */
+    private int threads = 2;
+
+    /**
+     * Uploads waiting for a thread. Uploads arriving while the queue is full get no thumbnails and are shown at full
+     * size.
+     */
+    private int queueCapacity = 100;
+
+    public ThumbnailProperties() {
+        sizes.put("small", 240);
+        sizes.put("medium", 640);
+    }
+}
@@ -0,0 +1,31 @@
+package ImageHoster.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "imagehoster.usernames")
+public class UsernameProperties {
+
+    /**
+     * Number of usernames the filter answering availability checks is sized for. It is sized for the usernames in
+     * the database instead when there are more.
+     */
+    private long expectedUsernames = 100_000;
+
+    /**
+     * Share of taken-looking usernames that are in fact free once the expected number of usernames is reached. Each
+     * of them costs a database query. Halving it costs about 1.44 more bits of memory per username.
+     */
+    private double falsePositiveRate = 0.01;
+
+    /**
+     * How often the filter is built again from the database, which also picks up the users registered on other
+     * nodes.
+     */
+    private Duration rebuildInterval = Duration.ofMinutes(15);
+}
@@ -1,14 +1,14 @@
 package ImageHoster.controller;
 
-import ImageHoster.model.Image;
+import ImageHoster.model.ImageTile;
+import ImageHoster.model.KeysetPage;
 import ImageHoster.service.ImageService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
-
-import java.util.List;
+import org.springframework.web.bind.annotation.RequestParam;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -17,10 +17,13 @@ public class HomeController {
     private final ImageService imageService;
 
     @RequestMapping("/")
-    public String getAllImages(final Model model) {
+    public String getAllImages(@RequestParam(name = "newer", required = false) final String newer,
+                               @RequestParam(name = "older", required = false) final String older,
+                               final Model model) {
         log.debug("Display all Images");
-        final List<Image> images = imageService.getAllImages();
-        model.addAttribute("images", images);
+        final KeysetPage<ImageTile> page = imageService.getImagesPage(newer, older);
+        model.addAttribute("images", page.getItems());
+        model.addAttribute("page", page);
         return "index";
     }
 }
\ No newline at end of file
@@ -2,26 +2,38 @@ package ImageHoster.controller;
 
 import ImageHoster.model.Comment;
 import ImageHoster.model.Image;
+import ImageHoster.model.ImageTile;
+import ImageHoster.model.KeysetPage;
+import ImageHoster.model.SearchPage;
 import ImageHoster.model.Tag;
-import ImageHoster.model.User;
+import ImageHoster.model.UserPrincipal;
 import ImageHoster.service.CommentService;
+import ImageHoster.service.ImageSearchService;
 import ImageHoster.service.ImageService;
 import ImageHoster.service.TagService;
+import ImageHoster.service.ThumbnailService;
+import ImageHoster.storage.ImageTooLargeException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.Date;
 import java.util.List;
 import java.util.StringTokenizer;
@@ -33,14 +45,34 @@ public class ImageController {
     private final ImageService imageService;
     private final TagService tagService;
     private final CommentService commentService;
+    private final ThumbnailService thumbnailService;
+    private final RawImageWriter rawImageWriter;
+    private final ImagePageRenderer imagePageRenderer;
+    private final ImageSearchService imageSearchService;
 
     @RequestMapping("images")
-    public String getUserImages(final Model model) {
-        final List<Image> images = imageService.getAllImages();
-        model.addAttribute("images", images);
+    public String getUserImages(@RequestParam(name = "newer", required = false) final String newer,
+                                @RequestParam(name = "older", required = false) final String older,
+                                final Model model) {
+        final KeysetPage<ImageTile> page = imageService.getImagesPage(newer, older);
+        model.addAttribute("images", page.getItems());
+        model.addAttribute("page", page);
         return "images";
     }
 
+    //This controller method is called when the request pattern is of type 'images/search'
+    //The images having every word of the query 'q' in their title, description or tags are listed, best match first
+    @RequestMapping("images/search")
+    public String searchImages(@RequestParam(name = "q", defaultValue = "") final String query,
+                               @RequestParam(name = "page", defaultValue = "1") final int page,
+                               final Model model) {
+        final SearchPage<ImageTile> results = imageSearchService.search(query, page);
+        model.addAttribute("images", results.getItems());
+        model.addAttribute("results", results);
+        model.addAttribute("query", query);
+        return "images/search";
+    }
+
     //This method is called when the details of the specific image with corresponding title are to be displayed
     //The logic is to get the image from the database with corresponding title. After getting the image from the
     // database the details are shown
@@ -53,18 +85,56 @@ public class ImageController {
     //Also now you need to add the tags of an image in the Model type object
     //Here a list of tags is added in the Model type object
     //this list is then sent to 'images/image.html' file and the tags are displayed
+
+    //The image, its tags and comments are rendered by the ImagePageRenderer, which keeps the rendered HTML until the
+    // image changes, so a page seen before is served without reading the database
+    //A browser revalidating a page it already has gets '304 Not Modified' without the page template being run
+    //The page shows the newest comments, the optional 'comments' parameter is the cursor of a page of older ones
     @RequestMapping("/images/{id}/{title}")
     public String showImage(@PathVariable("id") final Integer id,
                             @PathVariable("title") final String title,
-                            final Model model) {
-        final Image image = imageService.getImage(id);
-        final List<Comment> comments = commentService.getCommentsForImage(image);
-        model.addAttribute("image", image);
-        model.addAttribute("tags", image.getTags());
-        model.addAttribute("comments", comments);
+                            @RequestParam(name = "comments", required = false) final String olderComments,
+                            final Model model,
+                            final HttpSession session,
+                            final WebRequest webRequest,
+                            final HttpServletRequest request,
+                            final HttpServletResponse response) {
+        if (olderComments != null) {
+            model.addAttribute("imageId", id);
+            model.addAttribute("imageBody", imagePageRenderer.renderBody(id, olderComments, request, response));
+            return "images/image";
+        }
+        final ImagePageRenderer.RenderedBody body = imagePageRenderer.renderBody(id, request, response);
+        final UserPrincipal user = (UserPrincipal) session.getAttribute("loggeduser");
+        if (webRequest.checkNotModified(body.etagFor(user), body.getLastModified())) {
+            return null;
+        }
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+        model.addAttribute("imageId", id);
+        model.addAttribute("imageBody", body.getHtml());
         return "images/image";
     }
 
+    //This controller method is called when the request pattern is of type 'images/{id}/raw'
+    //The method streams the bytes of the image so pages can link to it instead of inlining the image as Base64
+    //Partial requests are answered from the 'Range' header
+    //The optional 'rendition' parameter selects one of the thumbnails, the original is sent until it has been created
+    //The optional 'v' parameter is the storage key of the file the page expects. Files are named by their content, so
+    // a browser revalidating a copy of that very file, whose entity tag is the key, is answered with '304 Not Modified'
+    // without looking up the image
+    @RequestMapping(value = "/images/{id}/raw", method = RequestMethod.GET)
+    public void showRawImage(@PathVariable("id") final Integer id,
+                             @RequestParam(value = "rendition", required = false) final String rendition,
+                             @RequestParam(value = "v", required = false) final String version,
+                             final HttpServletRequest request,
+                             final HttpServletResponse response) throws IOException {
+        if (rawImageWriter.writeNotModified(version, request, response)) {
+            return;
+        }
+        final Image image = imageService.getImage(id);
+        rawImageWriter.write(image, rendition, version, request, response);
+    }
+
     //This controller method is called when the request pattern is of type 'images/upload'
     //The method returns 'images/upload.html' file
     @RequestMapping("/images/upload")
@@ -77,8 +147,10 @@ public class ImageController {
     //The method receives all the details of the image to be stored in the database, and now the image will be sent
     // to the business logic to be persisted in the database
     //After you get the imageFile, set the user of the image by getting the logged in user from the Http Session
-    //Convert the image to Base64 format and store it as a string in the 'imageFile' attribute
+    //Write the image file to the image storage and keep its storage key, size and mime type on the image
     //Set the date on which the image is posted
+    //The file is streamed to the storage, an image over the upload limit returns to the upload page with an error
+    //The thumbnails are created in the background, so the method does not wait for the image to be resized
     //After storing the image, this method directs to the logged in user homepage displaying all the images
 
     //Get the 'tags' request parameter using @RequestParam annotation which is just a string of all the tags
@@ -86,16 +158,21 @@ public class ImageController {
     //set the tags attribute of the image as a list of all the tags returned by the findOrCreateTags() method
     @RequestMapping(value = "/images/upload", method = RequestMethod.POST)
     public String createImage(@RequestParam("file") final MultipartFile file, @RequestParam("tags") final String tags,
-                              final Image newImage, final HttpSession session) throws IOException {
-        final User user = (User) session.getAttribute("loggeduser");
-        newImage.setUser(user);
-        final String uploadedImageData = convertUploadedFileToBase64(file);
-        newImage.setImageFile(uploadedImageData);
+                              final Image newImage, final Model model, final HttpSession session) throws IOException {
+        final UserPrincipal user = (UserPrincipal) session.getAttribute("loggeduser");
+        newImage.setUser(user.toUser());
+        try {
+            imageService.storeImageFile(newImage, file);
+        } catch (final ImageTooLargeException e) {
+            model.addAttribute("uploadError", uploadErrorMessage(e.getMaxSize()));
+            return "images/upload";
+        }
 
         final List<Tag> imageTags = findOrCreateTags(tags);
         newImage.setTags(imageTags);
         newImage.setDate(new Date());
         imageService.uploadImage(newImage);
+        thumbnailService.generateThumbnails(newImage);
         return "redirect:/images";
     }
 
@@ -110,18 +187,18 @@ public class ImageController {
     @RequestMapping(value = "/editImage")
     public String editImage(@RequestParam("imageId") final Integer imageId,
                             final Model model,
-                            final HttpSession session) {
-        final Image image = imageService.getImage(imageId);
-        final User loggedInUser = (User) session.getAttribute("loggeduser");
-
-        model.addAttribute("image", image);
+                            final HttpSession session,
+                            final HttpServletRequest request,
+                            final HttpServletResponse response) {
+        final Image image = imageService.getImageForEdit(imageId);
+        final UserPrincipal loggedInUser = (UserPrincipal) session.getAttribute("loggeduser");
 
         if (!image.getUser().getId().equals(loggedInUser.getId())) {
-            model.addAttribute("tags", image.getTags());
             model.addAttribute("editError", "Only the owner of the image can edit the image");
-            return "images/image";
+            return imagePage(imageId, model, request, response);
         }
 
+        model.addAttribute("image", image);
         final String tags = convertTagsToString(image.getTags());
         model.addAttribute("tags", tags);
         return "images/edit";
@@ -132,6 +209,7 @@ public class ImageController {
     //The method receives the imageFile, imageId, updated image, along with the Http Session
     //The method adds the new imageFile to the updated image if user updates the imageFile and adds the previous
     // imageFile to the new updated image if user does not choose to update the imageFile
+    //An imageFile over the upload limit returns to the edit page with an error
     //Set an id of the new updated image
     //Set the user using Http Session
     //Set the date on which the image is posted
@@ -147,25 +225,38 @@ public class ImageController {
                                   @RequestParam("imageId") final Integer imageId,
                                   @RequestParam("tags") final String tags,
                                   final Image updatedImage,
+                                  final Model model,
                                   final HttpSession session)
             throws IOException {
-        final Image image = imageService.getImage(imageId);
-        final String updatedImageData = convertUploadedFileToBase64(file);
-        final List<Tag> imageTags = findOrCreateTags(tags);
+        final Image image = imageService.getImageForEdit(imageId);
 
-        if (updatedImageData.isEmpty()) {
-            updatedImage.setImageFile(image.getImageFile());
+        if (file.isEmpty()) {
+            updatedImage.setStorageKey(image.getStorageKey());
+            updatedImage.setFileSize(image.getFileSize());
+            updatedImage.setMimeType(image.getMimeType());
         } else {
-            updatedImage.setImageFile(updatedImageData);
+            try {
+                imageService.storeImageFile(updatedImage, file);
+            } catch (final ImageTooLargeException e) {
+                model.addAttribute("image", image);
+                model.addAttribute("tags", tags);
+                model.addAttribute("uploadError", uploadErrorMessage(e.getMaxSize()));
+                return "images/edit";
+            }
         }
+        final List<Tag> imageTags = findOrCreateTags(tags);
 
         updatedImage.setId(imageId);
-        final User user = (User) session.getAttribute("loggeduser");
-        updatedImage.setUser(user);
+        final UserPrincipal user = (UserPrincipal) session.getAttribute("loggeduser");
+        updatedImage.setUser(user.toUser());
         updatedImage.setTags(imageTags);
         updatedImage.setDate(new Date());
 
         imageService.updateImage(updatedImage);
+        imagePageRenderer.invalidate(imageId);
+        if (!file.isEmpty()) {
+            thumbnailService.generateThumbnails(updatedImage);
+        }
         return "redirect:/images/" + imageId + "/" + updatedImage.getTitle();
     }
 
@@ -176,19 +267,20 @@ public class ImageController {
     @RequestMapping(value = "/deleteImage", method = RequestMethod.POST)
     public String deleteImageSubmit(@RequestParam(name = "imageId") final Integer imageId,
                                     final Model model,
-                                    final HttpSession session) {
+                                    final HttpSession session,
+                                    final HttpServletRequest request,
+                                    final HttpServletResponse response) {
         log.info("Delete Image!!");
-        final Image image = imageService.getImage(imageId);
-        final User loggedInUser = (User) session.getAttribute("loggeduser");
+        final Image image = imageService.getImageForEdit(imageId);
+        final UserPrincipal loggedInUser = (UserPrincipal) session.getAttribute("loggeduser");
 
         if (!image.getUser().getId().equals(loggedInUser.getId())) {
-            model.addAttribute("image", image);
-            model.addAttribute("tags", image.getTags());
             model.addAttribute("deleteError", "Only the owner of the image can delete the image");
-            return "images/image";
+            return imagePage(imageId, model, request, response);
         }
 
         imageService.deleteImage(imageId);
+        imagePageRenderer.invalidate(imageId);
         return "redirect:/images";
     }
 
@@ -197,58 +289,66 @@ public class ImageController {
                                @PathVariable(name = "imageTitle") final String imageTitle,
                                @RequestParam("comment") final String comment,
                                final Model model,
-                               final HttpSession session) {
+                               final HttpSession session,
+                               final HttpServletRequest request,
+                               final HttpServletResponse response) {
         log.info("Save Comments.!");
         final Image image = imageService.getImage(imageId);
-        final User loggedInUser = (User) session.getAttribute("loggeduser");
+        final UserPrincipal loggedInUser = (UserPrincipal) session.getAttribute("loggeduser");
 
         final Comment newComment = new Comment();
         newComment.setText(comment);
         newComment.setCreatedDate(LocalDate.now());
         newComment.setImage(image);
-        newComment.setUser(loggedInUser);
+        newComment.setUser(loggedInUser.toUser());
 
         commentService.saveComment(newComment);
+        imagePageRenderer.invalidate(imageId);
+        return imagePage(imageId, model, request, response);
+    }
 
-        final List<Comment> comments = commentService.getCommentsForImage(image);
-        model.addAttribute("image", image);
-        model.addAttribute("tags", image.getTags());
-        model.addAttribute("comments", comments);
+    //Fills the model of 'images/image.html', the error banners of the page are added by the caller and never cached
+    private String imagePage(final Integer imageId, final Model model, final HttpServletRequest request,
+                             final HttpServletResponse response) {
+        model.addAttribute("imageId", imageId);
+        model.addAttribute("imageBody", imagePageRenderer.renderBody(imageId, request, response).getHtml());
         return "images/image";
     }
 
-    //This method converts the image to Base64 format
-    private String convertUploadedFileToBase64(final MultipartFile file) throws IOException {
-        return Base64.getEncoder().encodeToString(file.getBytes());
+    //The limit is shown in MB, or in KB below 1 MB, rounded to one decimal so a limit of 1.5 MB or 512 KB is not shown
+    // as 1 MB or 0 MB
+    static String uploadErrorMessage(final long maxSize) {
+        final boolean megabytes = maxSize >= DataSize.ofMegabytes(1).toBytes();
+        final long unit = megabytes ? DataSize.ofMegabytes(1).toBytes() : DataSize.ofKilobytes(1).toBytes();
+        final BigDecimal size = BigDecimal.valueOf(maxSize)
+                                          .divide(BigDecimal.valueOf(unit), 1, RoundingMode.HALF_UP)
+                                          .stripTrailingZeros();
+        return "The image must not be larger than " + size.toPlainString() + (megabytes ? " MB" : " KB");
     }
 
     private List<Tag> findOrCreateTags(final String tagNames) {
         final StringTokenizer st = new StringTokenizer(tagNames, ",");
-        final List<Tag> tags = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
 
         while (st.hasMoreTokens()) {
             final String tagName = st.nextToken().trim();
-            Tag tag = tagService.getTagByName(tagName);
-
-            if (tag == null) {
-                final Tag newTag = new Tag(tagName);
-                tag = tagService.createTag(newTag);
+            if (!tagName.isEmpty()) {
+                names.add(tagName);
             }
-            tags.add(tag);
         }
-        return tags;
+        return tagService.getOrCreateTags(names);
     }
 
-    private String convertTagsToString(final List<Tag> tags) {
+    static String convertTagsToString(final List<Tag> tags) {
         final StringBuilder tagString = new StringBuilder();
 
-        for (int i = 0; i <= tags.size() - 2; i++) {
-            tagString.append(tags.get(i).getName()).append(",");
+        for (final Tag tag : tags) {
+            if (tagString.length() > 0) {
+                tagString.append(",");
+            }
+            tagString.append(tag.getName());
         }
 
-        final Tag lastTag = tags.get(tags.size() - 1);
-        tagString.append(lastTag.getName());
-
         return tagString.toString();
     }
 }
@@ -0,0 +1,156 @@
+package ImageHoster.controller;
+
+import ImageHoster.cache.LruCache;
+import ImageHoster.config.GalleryProperties;
+import ImageHoster.model.Comment;
+import ImageHoster.model.Image;
+import ImageHoster.model.KeysetPage;
+import ImageHoster.model.UserPrincipal;
+import ImageHoster.service.CommentService;
+import ImageHoster.service.ImageService;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.context.WebContext;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Renders the part of the image page every visitor sees the same, the image with its tags and comments, and keeps the
+ * rendered HTML in memory. A cached page is served without reading the database or running the template.
+ * <p>
+ * Cached bodies are keyed by image id and a version stamp of the image. Changing an image moves it to a new version,
+ * so a body rendered from data read before the change is never found again, however late it is stored. The version is
+ * the time of the change, so it also gives the page a Last-Modified date that accounts for new comments.
+ * <p>
+ * Each body keeps the validators of the page, so a conditional request for a cached page is answered without reading
+ * the database either.
+ * <p>
+ * Versions only move for changes made on this node, so a body is also dropped once it is older than the time to live,
+ * after which changes made on other nodes show.
+ */
+@Component
+public class ImagePageRenderer {
+    private static final String BODY_TEMPLATE = "images/image-body";
+
+    private final ImageService imageService;
+    private final CommentService commentService;
+    private final TemplateEngine templateEngine;
+    private final long ttlMillis;
+    private final LruCache<String, RenderedBody> bodies;
+    private final ConcurrentMap<Integer, Long> versions = new ConcurrentHashMap<>();
+    //Version of the images not changed since startup, changes made before it are not known
+    private final long startedAt = System.currentTimeMillis();
+
+    public ImagePageRenderer(final ImageService imageService, final CommentService commentService,
+                             final TemplateEngine templateEngine, final GalleryProperties galleryProperties,
+                             final MeterRegistry meterRegistry) {
+        this.imageService = imageService;
+        this.commentService = commentService;
+        this.templateEngine = templateEngine;
+        ttlMillis = galleryProperties.getPageCacheTtl().toMillis();
+        bodies = new LruCache<>(galleryProperties.getPageCacheSize());
+        bodies.bindTo(meterRegistry, "imagePages");
+    }
+
+    /**
+     * Return the rendered body of the image page with the newest comments, rendering it if it is not cached.
+     *
+     * @param imageId  - Integer
+     * @param request  - HttpServletRequest
+     * @param response - HttpServletResponse
+     *
+     * @return RenderedBody
+     */
+    public RenderedBody renderBody(final Integer imageId, final HttpServletRequest request,
+                                   final HttpServletResponse response) {
+        //The version is read before the image, so a change made while rendering leaves this body under a stale key
+        final long version = versions.getOrDefault(imageId, startedAt);
+        final String key = imageId + ":" + version;
+        final long now = System.currentTimeMillis();
+        final RenderedBody cached = bodies.get(key);
+        if (cached != null && now - cached.getRenderedAt() < ttlMillis) {
+            return cached;
+        }
+
+        final Image image = imageService.getImageDetail(imageId);
+        final KeysetPage<Comment> comments = commentService.getCommentsForImage(image, null);
+        final long imageDate = image.getDate() == null ? 0 : image.getDate().getTime();
+        //Comments are never deleted, so their count changes with every new one. Their ids do not tell, an id
+        // allocated earlier by another node can be lower than the latest comment's
+        final RenderedBody body = new RenderedBody(render(image, comments, false, request, response),
+                                                   imageId + "-" + imageDate + "-" + image.getCommentCount(),
+                                                   Math.max(imageDate, version), now);
+        bodies.put(key, body);
+        return body;
+    }
+
+    /**
+     * Render the body of the image page with a page of older comments. Only the page with the newest comments is
+     * cached, older ones are seldom read.
+     *
+     * @param imageId       - Integer
+     * @param olderComments - String, cursor of the page of comments
+     * @param request       - HttpServletRequest
+     * @param response      - HttpServletResponse
+     *
+     * @return String, HTML
+     */
+    public String renderBody(final Integer imageId, final String olderComments, final HttpServletRequest request,
+                             final HttpServletResponse response) {
+        final Image image = imageService.getImageDetail(imageId);
+        return render(image, commentService.getCommentsForImage(image, olderComments), true, request, response);
+    }
+
+    private String render(final Image image, final KeysetPage<Comment> comments, final boolean olderComments,
+                          final HttpServletRequest request, final HttpServletResponse response) {
+        final WebContext context = new WebContext(request, response, request.getServletContext(), request.getLocale());
+        context.setVariable("image", image);
+        context.setVariable("tags", image.getTags());
+        context.setVariable("comments", comments.getItems());
+        context.setVariable("olderComments", comments.getOlderCursor());
+        context.setVariable("showingOlderComments", olderComments);
+        return templateEngine.process(BODY_TEMPLATE, context);
+    }
+
+    /**
+     * Drop the rendered body of an image after the image, its tags or its comments changed.
+     *
+     * @param imageId - Integer
+     */
+    public void invalidate(final Integer imageId) {
+        final long now = System.currentTimeMillis();
+        versions.merge(imageId, now, (previous, changedAt) -> Math.max(previous + 1, changedAt));
+    }
+
+    /**
+     * Rendered body of an image page with the validators of the page.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class RenderedBody {
+        private final String html;
+        //Image id, date of the image and number of its comments
+        private final String validator;
+        private final long lastModified;
+        //Time the body was rendered, it is not served once older than the time to live
+        private final long renderedAt;
+
+        /**
+         * The header of the page greets the user, so the tag of the page tells the users apart. It is weak because
+         * the page is only equivalent, not byte for byte equal, when the tag matches.
+         *
+         * @param viewer - UserPrincipal, null if nobody is logged in
+         *
+         * @return String
+         */
+        public String etagFor(final UserPrincipal viewer) {
+            return "W/\"" + validator + "-" + (viewer == null ? "anonymous" : viewer.getId()) + "\"";
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ImageHoster.controller;
+
+import ImageHoster.service.ImageImportService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Command line entry point of the bulk import. Starting the application with {@code --import=<directory>} imports
+ * the images listed in {@code manifest.tsv} of the directory, or in the file given with {@code --manifest=<file>},
+ * and exits when the import is done. Running the same command again resumes an import that was interrupted.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class ImportCommand implements ApplicationRunner {
+    private static final String DEFAULT_MANIFEST = "manifest.tsv";
+
+    private final ImageImportService imageImportService;
+    private final ConfigurableApplicationContext context;
+
+    @Override
+    public void run(final ApplicationArguments args) {
+        final List<String> directories = args.getOptionValues("import");
+        if (directories == null || directories.isEmpty()) {
+            return;
+        }
+        final Path directory = Paths.get(directories.get(0));
+        final List<String> manifests = args.getOptionValues("manifest");
+        final Path manifest = manifests == null || manifests.isEmpty()
+                              ? directory.resolve(DEFAULT_MANIFEST) : Paths.get(manifests.get(0));
+
+        int exitCode = 0;
+        try {
+            final int imported = imageImportService.importImages(directory, manifest);
+            log.info("Import of {} finished, {} images imported", manifest, imported);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Import of {} was interrupted, run it again to resume", manifest);
+            exitCode = 1;
+        } catch (final Exception e) {
+            log.error("Import of {} failed, run it again to resume -> {}", manifest, e.getLocalizedMessage(), e);
+            exitCode = 1;
+        }
+        final int status = exitCode;
+        System.exit(SpringApplication.exit(context, () -> status));
+    }
+}
@@ -0,0 +1,237 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.Image;
+import ImageHoster.storage.ImageMimeTypes;
+import ImageHoster.storage.ImageStorage;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.Optional;
+
+/**
+ * Writes the bytes of an image to the response with HTTP Range support. Files kept on the local disk are handed to
+ * Tomcat's sendfile support so the bytes go from the page cache to the socket without passing through the heap.
+ * <p>
+ * Stored files are named by the hash of their content, so the storage key is a strong entity tag of the bytes. A URL
+ * whose version is the key of the file it serves can never point at other bytes and is cached for good, any other URL
+ * is revalidated against the tag on every use.
+ */
+@RequiredArgsConstructor
+@Component
+public class RawImageWriter {
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private final ImageStorage imageStorage;
+
+    /**
+     * Answer '304 Not Modified' without looking up the image when the browser revalidates its copy of the very file the
+     * version names. Only an If-None-Match holding the version itself matches: the entity tag of a file is always its
+     * storage key, so a browser holding that tag holds those bytes, and no other version is ever given a tag here.
+     *
+     * @param version  - String, storage key the page linking to the image expects, or null
+     * @param request  - HttpServletRequest
+     * @param response - HttpServletResponse
+     *
+     * @return boolean, true if the response was answered
+     */
+    public boolean writeNotModified(final String version, final HttpServletRequest request,
+                                    final HttpServletResponse response) {
+        if (version == null || version.isEmpty()) {
+            return false;
+        }
+        final String entityTag = "\"" + version + "\"";
+        final Enumeration<String> ifNoneMatch = request.getHeaders(HttpHeaders.IF_NONE_MATCH);
+        while (ifNoneMatch != null && ifNoneMatch.hasMoreElements()) {
+            for (final String tag : ifNoneMatch.nextElement().split(",")) {
+                final String trimmed = tag.trim();
+                //If-None-Match compares tags weakly, so a weak tag of the same file matches too
+                if (entityTag.equals(trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed)) {
+                    response.setStatus(HttpStatus.NOT_MODIFIED.value());
+                    response.setHeader(HttpHeaders.ETAG, entityTag);
+                    response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write the image bytes, or the requested range of them, to the response. The entity tag is the storage key of
+     * the file served.
+     *
+     * @param image     - Image
+     * @param rendition - String, name of a thumbnail or null for the original
+     * @param version   - String, storage key the page linking to the image expects, or null
+     * @param request   - HttpServletRequest
+     * @param response  - HttpServletResponse
+     */
+    public void write(final Image image, final String rendition, final String version,
+                      final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final String thumbnailKey = rendition == null ? null : image.getThumbnails().get(rendition);
+        final String storageKey = thumbnailKey != null ? thumbnailKey : image.getStorageKey();
+        if (storageKey != null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, storageKey.equals(version) ? IMMUTABLE : "no-cache");
+            if (new ServletWebRequest(request, response).checkNotModified(storageKey)) {
+                return;
+            }
+        }
+        if (thumbnailKey != null) {
+            write(thumbnailKey, MediaType.IMAGE_JPEG_VALUE, request, response);
+        } else if (image.getStorageKey() != null) {
+            write(image.getStorageKey(), contentType(image), request, response);
+        } else {
+            response.sendError(HttpStatus.NOT_FOUND.value());
+        }
+    }
+
+    private void write(final String storageKey, final String contentType, final HttpServletRequest request,
+                       final HttpServletResponse response) throws IOException {
+        final Optional<Path> localPath = imageStorage.localPath(storageKey);
+        final long size = localPath.isPresent() ? Files.size(localPath.get()) : imageStorage.size(storageKey);
+        final ByteRange range = prepare(contentType, size, request, response);
+        if (range == null || isHead(request)) {
+            return;
+        }
+
+        if (!localPath.isPresent()) {
+            try (InputStream content = imageStorage.open(storageKey)) {
+                StreamUtils.copyRange(content, response.getOutputStream(), range.start, range.end);
+            }
+        } else if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, localPath.get().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, range.start);
+            request.setAttribute(SENDFILE_END, range.end + 1);
+        } else {
+            transfer(localPath.get(), range, response);
+        }
+    }
+
+    //Sets the status and headers for the range and returns it, or returns null when the range can not be satisfied
+    private ByteRange prepare(final String contentType, final long size, final HttpServletRequest request,
+                              final HttpServletResponse response) {
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        response.setContentType(contentType);
+        if (MediaType.APPLICATION_OCTET_STREAM_VALUE.equals(contentType)) {
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment");
+        }
+
+        final String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        final ByteRange range = ByteRange.parse(rangeHeader, size);
+        if (range == null) {
+            response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+            return null;
+        }
+        if (range.length() < size) {
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + range.start + "-" + range.end + "/" + size);
+        }
+        response.setContentLengthLong(range.length());
+        return range;
+    }
+
+    //Fallback when the container can not sendfile: FileChannel.transferTo still lets the JDK use the cheapest copy
+    // the target channel allows
+    private void transfer(final Path path, final ByteRange range, final HttpServletResponse response)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+            long position = range.start;
+            long remaining = range.length();
+            while (remaining > 0) {
+                final long transferred = channel.transferTo(position, remaining, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+
+    //The mime type is whatever the uploading browser claimed, so anything that is not a raster image is served as an
+    // opaque download instead of letting it render as a page on our origin
+    private String contentType(final Image image) {
+        if (image.getMimeType() == null) {
+            return MediaType.IMAGE_JPEG_VALUE;
+        }
+        final String inlineType = ImageMimeTypes.inlineType(image.getMimeType());
+        return inlineType != null ? inlineType : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    }
+
+    private boolean isHead(final HttpServletRequest request) {
+        return "HEAD".equals(request.getMethod());
+    }
+
+    /**
+     * Inclusive byte range of a single-range {@code Range} header.
+     */
+    static final class ByteRange {
+        private final long start;
+        private final long end;
+
+        private ByteRange(final long start, final long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        long length() {
+            return end - start + 1;
+        }
+
+        //Returns the whole content when there is no usable header, because a server may always ignore Range, and
+        // null when the header asks for bytes past the end of the content
+        static ByteRange parse(final String header, final long size) {
+            final ByteRange whole = new ByteRange(0, size - 1);
+            if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+                return whole;
+            }
+            final String spec = header.substring("bytes=".length()).trim();
+            final int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return whole;
+            }
+            try {
+                final String first = spec.substring(0, dash).trim();
+                final String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    final long suffix = Long.parseLong(last);
+                    if (suffix <= 0 || size == 0) {
+                        return null;
+                    }
+                    return new ByteRange(Math.max(0, size - suffix), size - 1);
+                }
+                final long start = Long.parseLong(first);
+                final long end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+                if (start >= size || start > end) {
+                    return null;
+                }
+                return new ByteRange(start, end);
+            } catch (final NumberFormatException e) {
+                return whole;
+            }
+        }
+    }
+}
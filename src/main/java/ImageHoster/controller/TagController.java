@@ -0,0 +1,50 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.ImageTile;
+import ImageHoster.model.KeysetPage;
+import ImageHoster.model.Tag;
+import ImageHoster.service.ImageService;
+import ImageHoster.service.TagService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ResponseStatusException;
+
+@RequiredArgsConstructor
+@Controller
+public class TagController {
+    private final TagService tagService;
+    private final ImageService imageService;
+
+    //This controller method is called when the request pattern is of type 'tags'
+    //The tags used by the most images are listed with the number of their images, which is counted as images are
+    // tagged rather than when the page is shown
+    @RequestMapping("tags")
+    public String getTopTags(final Model model) {
+        model.addAttribute("tags", tagService.getTopTags());
+        return "tags/tags";
+    }
+
+    //This controller method is called when the request pattern is of type 'tags/{name}'
+    //The images tagged with the tag are listed newest first, one page at a time like the gallery
+    //A tag that does not exist is answered with '404 Not Found'
+    @RequestMapping("tags/{name}")
+    public String getTagImages(@PathVariable("name") final String name,
+                               @RequestParam(name = "newer", required = false) final String newer,
+                               @RequestParam(name = "older", required = false) final String older,
+                               final Model model) {
+        final Tag tag = tagService.getTagByName(name);
+        if (tag == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "There is no tag " + name);
+        }
+        final KeysetPage<ImageTile> page = imageService.getImagesPageForTag(tag, newer, older);
+        model.addAttribute("tag", tag);
+        model.addAttribute("images", page.getItems());
+        model.addAttribute("page", page);
+        return "tags/tag";
+    }
+}
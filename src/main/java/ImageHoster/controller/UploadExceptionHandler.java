@@ -0,0 +1,77 @@
+package ImageHoster.controller;
+
+import ImageHoster.config.StorageProperties;
+import ImageHoster.model.Image;
+import ImageHoster.model.UserPrincipal;
+import ImageHoster.service.ImageService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Answers uploads that the servlet container refused while parsing the multipart request. The container checks the
+ * declared request size before reading the body and stops reading a part as soon as it passes the limit, so these
+ * requests never reach a controller.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@ControllerAdvice
+public class UploadExceptionHandler {
+    private final StorageProperties storageProperties;
+    private final ImageService imageService;
+
+    //Returns to the form the file was sent from, the edit form of the image or the upload form
+    //The id of the image edited is in the query string of the edit form, which is read even though the body was not
+    @ExceptionHandler(MaxUploadSizeExceededException.class)
+    @ResponseStatus(HttpStatus.PAYLOAD_TOO_LARGE)
+    public ModelAndView uploadTooLarge(final MaxUploadSizeExceededException e, final HttpServletRequest request,
+                                       final HttpSession session) {
+        log.info("Upload rejected -> {}", e.getLocalizedMessage());
+        final Image editedImage = editedImage(request, session);
+        final ModelAndView modelAndView;
+        if (editedImage == null) {
+            modelAndView = new ModelAndView("images/upload");
+        } else {
+            modelAndView = new ModelAndView("images/edit");
+            modelAndView.addObject("image", editedImage);
+            modelAndView.addObject("tags", ImageController.convertTagsToString(editedImage.getTags()));
+        }
+        modelAndView.addObject("uploadError",
+                               ImageController.uploadErrorMessage(storageProperties.getMaxFileSize().toBytes()));
+        return modelAndView;
+    }
+
+    //The image of the edit form the request was sent from, null if it was not sent from the edit form of an image of
+    // the logged in user
+    private Image editedImage(final HttpServletRequest request, final HttpSession session) {
+        if (!"/editImage".equals(request.getServletPath())) {
+            return null;
+        }
+        final Integer imageId;
+        try {
+            imageId = Integer.valueOf(request.getParameter("imageId"));
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+        final Image image;
+        try {
+            image = imageService.getImageForEdit(imageId);
+        } catch (final EmptyResultDataAccessException e) {
+            return null;
+        }
+        final UserPrincipal loggedInUser = (UserPrincipal) session.getAttribute("loggeduser");
+        if (loggedInUser == null || !image.getUser().getId().equals(loggedInUser.getId())) {
+            return null;
+        }
+        return image;
+    }
+}
@@ -1,19 +1,29 @@
 package ImageHoster.controller;
 
-import ImageHoster.model.Image;
+import ImageHoster.model.ImageTile;
+import ImageHoster.model.KeysetPage;
 import ImageHoster.model.User;
+import ImageHoster.model.UserPrincipal;
+import ImageHoster.model.UsernameAvailability;
 import ImageHoster.model.UserProfile;
 import ImageHoster.service.ImageService;
+import ImageHoster.service.PasswordHashingBusyException;
 import ImageHoster.service.UserService;
+import ImageHoster.service.UsernameAvailabilityService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
-import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -21,8 +31,11 @@ import java.util.regex.Pattern;
 @RequiredArgsConstructor
 @Controller
 public class UserController {
+    private static final String BUSY_MESSAGE = "Too many people are logging in right now, please try again in a moment";
+
     private final UserService userService;
     private final ImageService imageService;
+    private final UsernameAvailabilityService usernameAvailabilityService;
 
     //This controller method is called when the request pattern is of type 'users/registration'
     //This method declares User type and UserProfile type object
@@ -40,14 +53,28 @@ public class UserController {
     //This controller method is called when the request pattern is of type 'users/registration' and also the incoming
     // request is of POST type
     //This method calls the business logic and after the user record is persisted in the database, directs to login page
+    //A username that is already taken, or a registration arriving while too many passwords are being hashed, returns
+    // to the registration page with an error
     @RequestMapping(value = "users/registration", method = RequestMethod.POST)
-    public String registerUser(final User user, final Model model) {
+    public String registerUser(final User user, final Model model, final HttpServletResponse response) {
         if (isValidPassword(user.getPassword())) {
             log.error(
                     "Password doesn't meet the required criteria. Password must contain atleast 1 alphabet, 1 number " +
                     "& 1 special character");
-            userService.registerUser(user);
-            return "redirect:/users/login";
+            try {
+                if (userService.registerUser(user)) {
+                    return "redirect:/users/login";
+                }
+                model.addAttribute("usernameError", "Username is already taken");
+            } catch (final PasswordHashingBusyException e) {
+                response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+                model.addAttribute("busyError", BUSY_MESSAGE);
+            }
+            final User newUser = new User();
+            final UserProfile profile = new UserProfile();
+            newUser.setProfile(profile);
+            model.addAttribute("User", newUser);
+            return "users/registration";
         } else {
             final User newUser = new User();
             final UserProfile profile = new UserProfile();
@@ -59,6 +86,18 @@ public class UserController {
         }
     }
 
+    //This controller method is called when the request pattern is of type 'users/available'
+    //The registration form calls it as the username is typed, and gets whether the username is free as JSON
+    //Most free usernames are answered from the in-memory username filter without reading the database
+    @RequestMapping(value = "users/available", method = RequestMethod.GET)
+    @ResponseBody
+    public ResponseEntity<UsernameAvailability> isUsernameAvailable(@RequestParam("name") final String name) {
+        final boolean available = !name.trim().isEmpty() && usernameAvailabilityService.isUsernameAvailable(name);
+        return ResponseEntity.ok()
+                             .cacheControl(CacheControl.noStore())
+                             .body(new UsernameAvailability(name, available));
+    }
+
     //This controller method is called when the request pattern is of type 'users/login'
     @RequestMapping("users/login")
     public String login() {
@@ -70,14 +109,25 @@ public class UserController {
     //The return type of the business logic is changed to User type instead of boolean type. The login() method in
     // the business logic checks whether the user with entered username and password exists in the database and
     // returns the User type object if user with entered username and password exists in the database, else returns null
-    //If user with entered username and password exists in the database, add the logged in user in the Http Session
-    // and direct to user homepage displaying all the images in the application
+    //If user with entered username and password exists in the database, add the principal of the logged in user in
+    // the Http Session and direct to user homepage displaying all the images in the application
+    //The session only keeps the id, username and full name of the user, so it is small and can be read by any node
     //If user with entered username and password does not exist in the database, redirect to the same login page
+    //A login arriving while too many passwords are being hashed returns to the login page with '503 Service
+    // Unavailable'
     @RequestMapping(value = "users/login", method = RequestMethod.POST)
-    public String loginUser(final User user, final HttpSession session) {
-        final User existingUser = userService.login(user);
+    public String loginUser(final User user, final HttpSession session, final Model model,
+                            final HttpServletResponse response) {
+        final User existingUser;
+        try {
+            existingUser = userService.login(user);
+        } catch (final PasswordHashingBusyException e) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            model.addAttribute("busyError", BUSY_MESSAGE);
+            return "users/login";
+        }
         if (existingUser != null) {
-            session.setAttribute("loggeduser", existingUser);
+            session.setAttribute("loggeduser", UserPrincipal.of(existingUser));
             return "redirect:/images";
         } else {
             return "users/login";
@@ -88,14 +138,15 @@ public class UserController {
     // request is of POST type
     //The method receives the Http Session and the Model type object
     //session is invalidated
-    //All the images are fetched from the database and added to the model with 'images' as the key
+    //The first page of images is fetched from the database and added to the model with 'images' as the key
     //'index.html' file is returned showing the landing page of the application and displaying all the images in the
     // application
     @RequestMapping(value = "users/logout", method = RequestMethod.POST)
     public String logout(final Model model, final HttpSession session) {
         session.invalidate();
-        final List<Image> images = imageService.getAllImages();
-        model.addAttribute("images", images);
+        final KeysetPage<ImageTile> page = imageService.getImagesPage(null, null);
+        model.addAttribute("images", page.getItems());
+        model.addAttribute("page", page);
         return "index";
     }
 
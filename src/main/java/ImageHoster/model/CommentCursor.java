@@ -0,0 +1,45 @@
+package ImageHoster.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Position in the comments of an image, which are ordered by (createdDate, id) with the newest comment first.
+ */
+@Getter
+@AllArgsConstructor
+public class CommentCursor {
+    private final LocalDate createdDate;
+    private final Integer id;
+
+    /**
+     * Parse a cursor from a request parameter.
+     *
+     * @param value - String, as written by {@link #toString()}
+     *
+     * @return CommentCursor, null if the value is missing or malformed
+     */
+    public static CommentCursor parse(final String value) {
+        if (value == null) {
+            return null;
+        }
+        final int separator = value.indexOf('_');
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            return new CommentCursor(LocalDate.parse(value.substring(0, separator)),
+                                     Integer.valueOf(value.substring(separator + 1)));
+        } catch (final DateTimeParseException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return createdDate + "_" + id;
+    }
+}
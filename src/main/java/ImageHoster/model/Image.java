@@ -6,39 +6,67 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 import javax.persistence.CascadeType;
+import javax.persistence.CollectionTable;
 import javax.persistence.Column;
+import javax.persistence.ElementCollection;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
+import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
 import javax.persistence.ManyToOne;
+import javax.persistence.MapKeyColumn;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.OneToMany;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Getter
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table(name = "images")
+@NamedEntityGraph(name = Image.LISTING_GRAPH, attributeNodes = @NamedAttributeNode("thumbnails"))
+@NamedEntityGraph(name = Image.DETAIL_GRAPH, attributeNodes = @NamedAttributeNode("tags"))
+@NamedEntityGraph(name = Image.EDIT_GRAPH, attributeNodes = {@NamedAttributeNode("user"), @NamedAttributeNode("tags")})
+@Table(name = "images", indexes = @Index(name = "idx_images_date_id", columnList = "date, id"))
 public class Image {
+    //Fetch plans of the pages showing an image, every relationship of an image is lazy unless a plan asks for it
+    //The picture alone, for serving the image bytes
+    public static final String LISTING_GRAPH = "Image.listing";
+    //The image page, whose comments are fetched separately with Comment.WITH_USER_GRAPH
+    public static final String DETAIL_GRAPH = "Image.detail";
+    //The edit and delete actions, which check the owner and show the tags of the image
+    public static final String EDIT_GRAPH = "Image.edit";
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "images_seq")
+    @SequenceGenerator(name = "images_seq", sequenceName = "images_seq", allocationSize = 50)
     @Column(name = "id")
     private Integer id;
 
     @Column(name = "title")
     private String title;
 
-    @Column(columnDefinition = "TEXT")
-    private String imageFile;
+    //Key of the image bytes in the ImageStorage, the bytes themselves are not kept in the database
+    @Column(name = "storage_key", length = 64)
+    private String storageKey;
+
+    @Column(name = "file_size")
+    private Long fileSize;
+
+    @Column(name = "mime_type")
+    private String mimeType;
 
     @Column(name = "description")
     private String description;
@@ -46,27 +74,45 @@ public class Image {
     @Column(name = "date")
     private Date date;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
     private User user;
 
+    //The images of a tag are listed from the (tags_id, images_id) index of the join table
     @ManyToMany(fetch = FetchType.LAZY)
+    @JoinTable(name = "images_tags", joinColumns = @JoinColumn(name = "images_id"),
+               inverseJoinColumns = @JoinColumn(name = "tags_id"),
+               indexes = @Index(name = "idx_images_tags_tags_id_images_id", columnList = "tags_id, images_id"))
     private List<Tag> tags = new ArrayList<>();
 
-    @OneToMany(mappedBy = "image", cascade = CascadeType.REMOVE, fetch = FetchType.EAGER)
+    @OneToMany(mappedBy = "image", cascade = CascadeType.REMOVE, fetch = FetchType.LAZY)
     private List<Comment> comments = new ArrayList<>();
 
-    public Image(final int id, final String title, final String imageFile, final Date date) {
+    //Number of comments on the image, kept up to date as comments are written so pages never count them
+    //Only changed by the statements counting comments, so saving an image never writes back a stale count
+    @Column(name = "comment_count", columnDefinition = "integer default 0 not null", insertable = false,
+            updatable = false)
+    private int commentCount;
+
+    //Storage keys of the resized renditions of the image, keyed by rendition name
+    //Filled in the background after an upload, pages show the original until the rendition exists
+    @ElementCollection(fetch = FetchType.LAZY)
+    @CollectionTable(name = "image_thumbnails", joinColumns = @JoinColumn(name = "image_id"))
+    @MapKeyColumn(name = "rendition")
+    @Column(name = "storage_key", length = 64)
+    private Map<String, String> thumbnails = new HashMap<>();
+
+    public Image(final int id, final String title, final String storageKey, final Date date) {
         this.id = id;
         this.title = title;
-        this.imageFile = imageFile;
+        this.storageKey = storageKey;
         this.date = date;
     }
 
-    public Image(final int id, final String title, final String imageFile, final String description, final Date date) {
+    public Image(final int id, final String title, final String storageKey, final String description, final Date date) {
         this.id = id;
         this.title = title;
-        this.imageFile = imageFile;
+        this.storageKey = storageKey;
         this.description = description;
         this.date = date;
     }
@@ -0,0 +1,37 @@
+package ImageHoster.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.Date;
+
+//One row per file in the content-addressed ImageStorage, counting the images and thumbnails that use it
+//A file whose count dropped to zero is removed from the storage once it has been unused for the grace period
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "image_blobs", indexes = @Index(name = "idx_image_blobs_orphaned_at", columnList = "orphaned_at"))
+public class ImageBlob {
+
+    @Id
+    @Column(name = "storage_key", length = 64)
+    private String storageKey;
+
+    @Column(name = "file_size")
+    private Long fileSize;
+
+    @Column(name = "ref_count", nullable = false)
+    private int refCount;
+
+    @Column(name = "orphaned_at")
+    private Date orphanedAt;
+}
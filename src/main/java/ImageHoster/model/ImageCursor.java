@@ -0,0 +1,44 @@
+package ImageHoster.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Date;
+
+/**
+ * Position in the gallery, which is ordered by (date, id) with the newest image first.
+ */
+@Getter
+@AllArgsConstructor
+public class ImageCursor {
+    private final Date date;
+    private final Integer id;
+
+    /**
+     * Parse a cursor from a request parameter.
+     *
+     * @param value - String, as written by {@link #toString()}
+     *
+     * @return ImageCursor, null if the value is missing or malformed
+     */
+    public static ImageCursor parse(final String value) {
+        if (value == null) {
+            return null;
+        }
+        final int separator = value.indexOf('_');
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            return new ImageCursor(new Date(Long.parseLong(value.substring(0, separator))),
+                                   Integer.valueOf(value.substring(separator + 1)));
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return date.getTime() + "_" + id;
+    }
+}
@@ -0,0 +1,18 @@
+package ImageHoster.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * The text of an image that the search index is built from.
+ */
+@Getter
+@AllArgsConstructor
+public class ImageSearchDocument {
+    private final Integer id;
+    private final String title;
+    private final String description;
+    private final List<String> tagNames;
+}
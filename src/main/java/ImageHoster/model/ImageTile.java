@@ -0,0 +1,35 @@
+package ImageHoster.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Date;
+
+/**
+ * Read model of an image in the gallery listings. It is filled by a constructor expression, so listing an image never
+ * loads the entity, its owner or its comments.
+ */
+@Getter
+@AllArgsConstructor
+public class ImageTile {
+    /**
+     * Thumbnail shown in the listings, the original is shown until it exists.
+     */
+    public static final String RENDITION = "small";
+
+    private final Integer id;
+    private final String title;
+    private final Date date;
+    private final String ownerName;
+    private final String storageKey;
+    private final String thumbnailKey;
+
+    /**
+     * Key of the file the tile shows, used as the version of its image URL so the URL can be cached forever.
+     *
+     * @return String, null for images stored before the image storage existed
+     */
+    public String getVersion() {
+        return thumbnailKey != null ? thumbnailKey : storageKey;
+    }
+}
@@ -0,0 +1,35 @@
+package ImageHoster.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.util.Date;
+
+//Progress of a bulk import, committed with each batch of images so an interrupted import resumes after the last batch
+// it committed and imports nothing twice
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "import_checkpoints")
+public class ImportCheckpoint {
+
+    //Absolute path of the manifest being imported
+    @Id
+    @Column(name = "manifest", length = 1024)
+    private String manifest;
+
+    //Number of manifest entries done
+    @Column(name = "position", nullable = false)
+    private int position;
+
+    @Column(name = "updated_at")
+    private Date updatedAt;
+}
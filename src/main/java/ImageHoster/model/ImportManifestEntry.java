@@ -0,0 +1,73 @@
+package ImageHoster.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * One image of a bulk import manifest. The manifest is a UTF-8 text file with one image per line and the columns
+ * separated by tabs: file, title, description, tags and owner. The file is relative to the imported directory, the
+ * tags are separated by commas and the owner is a username. Blank lines and lines starting with '#' are ignored.
+ */
+@Getter
+@AllArgsConstructor
+public class ImportManifestEntry {
+    private static final int COLUMNS = 5;
+
+    private final String file;
+    private final String title;
+    private final String description;
+    private final List<String> tagNames;
+    private final String owner;
+
+    /**
+     * Read all the entries of a manifest, in the order they are imported.
+     *
+     * @param manifest - Path
+     *
+     * @return List<ImportManifestEntry>
+     *
+     * @throws IllegalArgumentException if a line does not have all the columns
+     */
+    public static List<ImportManifestEntry> read(final Path manifest) throws IOException {
+        final List<ImportManifestEntry> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] columns = line.split("\t", -1);
+                if (columns.length != COLUMNS) {
+                    throw new IllegalArgumentException("Line " + lineNumber + " of " + manifest + " has "
+                                                       + columns.length + " columns instead of " + COLUMNS);
+                }
+                entries.add(new ImportManifestEntry(columns[0].trim(), columns[1].trim(), columns[2].trim(),
+                                                    tagNames(columns[3]), columns[4].trim()));
+            }
+        }
+        return entries;
+    }
+
+    private static List<String> tagNames(final String tags) {
+        final StringTokenizer st = new StringTokenizer(tags, ",");
+        final List<String> names = new ArrayList<>();
+        while (st.hasMoreTokens()) {
+            final String tagName = st.nextToken().trim();
+            if (!tagName.isEmpty()) {
+                names.add(tagName);
+            }
+        }
+        return names;
+    }
+}
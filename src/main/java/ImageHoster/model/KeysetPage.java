@@ -0,0 +1,18 @@
+package ImageHoster.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * One page of a listing read with keyset pagination. The cursors are opaque strings for the request parameters of the
+ * previous and next page links, null when there is no page in that direction.
+ */
+@Getter
+@AllArgsConstructor
+public class KeysetPage<T> {
+    private final List<T> items;
+    private final String newerCursor;
+    private final String olderCursor;
+}
@@ -0,0 +1,19 @@
+package ImageHoster.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * One page of ranked search results. Results are ranked rather than ordered by a column, so pages are numbered from 1
+ * instead of read with a cursor.
+ */
+@Getter
+@AllArgsConstructor
+public class SearchPage<T> {
+    private final List<T> items;
+    private final int page;
+    private final int total;
+    private final boolean lastPage;
+}
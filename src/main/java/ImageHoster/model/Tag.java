@@ -4,37 +4,64 @@ import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.ManyToMany;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 import java.util.List;
+import java.util.Locale;
 
 @Getter
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table(name = "Tags")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "tags")
+@Table(name = "tags", uniqueConstraints = @UniqueConstraint(name = "uk_tags_normalized_name",
+                                                     columnNames = "normalized_name"),
+       indexes = @Index(name = "idx_tags_image_count_id", columnList = "image_count, id"))
 public class Tag {
 
     @Id
     @Column(name = "id")
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "tags_seq")
+    @SequenceGenerator(name = "tags_seq", sequenceName = "tags_seq", allocationSize = 50)
     private Integer id;
 
     @Column
     private String name;
 
+    //Identity of the tag, so 'Dog' and 'dog' are the same tag, while the name keeps the spelling it was created with
+    @Column(name = "normalized_name")
+    private String normalizedName;
+
+    //Number of images tagged with the tag, kept up to date as images are tagged so listings never count them
+    //Only changed by the statements counting images, so saving a tag never writes back a stale count
+    @Column(name = "image_count", columnDefinition = "integer default 0 not null", insertable = false,
+            updatable = false)
+    private int imageCount;
+
     @ManyToMany(fetch = FetchType.LAZY, mappedBy = "tags")
     private List<Image> images;
 
     public Tag(final String tagName) {
         name = tagName;
+        normalizedName = normalize(tagName);
+    }
+
+    public static String normalize(final String tagName) {
+        return tagName.trim().toLowerCase(Locale.ROOT);
     }
 }
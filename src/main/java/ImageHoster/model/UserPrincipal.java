@@ -0,0 +1,46 @@
+package ImageHoster.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * The logged in user as kept in the HTTP session. It holds only what the pages need on every request and never the
+ * password hash, so sessions stay small, serialize without touching the entity graph and can be read by any node.
+ * The full name is kept because every page shows it in the header.
+ */
+@Getter
+@AllArgsConstructor
+public final class UserPrincipal implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Integer id;
+    private final String username;
+    private final String fullName;
+
+    /**
+     * Principal of a user read from the database with its profile.
+     *
+     * @param user - User
+     *
+     * @return UserPrincipal
+     */
+    public static UserPrincipal of(final User user) {
+        return new UserPrincipal(user.getId(), user.getUsername(),
+                                 user.getProfile() == null ? null : user.getProfile().getFullName());
+    }
+
+    /**
+     * User holding only the id and the username, to set as the owner of images and comments, which only refer to
+     * the user by id.
+     *
+     * @return User
+     */
+    public User toUser() {
+        final User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        return user;
+    }
+}
@@ -0,0 +1,14 @@
+package ImageHoster.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Answer of the username availability check of the registration form.
+ */
+@Getter
+@AllArgsConstructor
+public class UsernameAvailability {
+    private final String name;
+    private final boolean available;
+}
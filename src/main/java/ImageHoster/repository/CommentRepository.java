@@ -1,22 +1,23 @@
 package ImageHoster.repository;
 
 import ImageHoster.model.Comment;
+import ImageHoster.model.CommentCursor;
 import ImageHoster.model.Image;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Hibernate;
+import org.hibernate.annotations.QueryHints;
 import org.springframework.stereotype.Repository;
 
 import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
-import javax.persistence.EntityTransaction;
-import javax.persistence.PersistenceUnit;
+import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
 import java.util.List;
 
 @Slf4j
 @Repository
 public class CommentRepository {
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
 
     /**
      * Save comment.
@@ -27,34 +28,46 @@ public class CommentRepository {
      */
     public Comment saveComment(final Comment comment) {
         log.info("Save comment.");
-        final EntityManager em = emf.createEntityManager();
-        final EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            em.persist(comment);
-            transaction.commit();
-        } catch (final Exception e) {
-            log.error("Exception -> {}", e.getLocalizedMessage());
-            transaction.rollback();
-        }
+        em.persist(comment);
         return comment;
     }
 
     /**
-     * Fetch comments for an Image.
+     * Fetch a page of the comments for an Image, newest first. The query walks the (image_id, created_date, id) index
+     * from the cursor, so its cost does not depend on the number of comments on the image.
      *
-     * @param image - Image
+     * @param image      - Image
+     * @param olderThan  - CommentCursor, null for the newest comments
+     * @param maxResults - int
      *
      * @return List<Comment>
      */
-    public List<Comment> fetchCommentsForImage(final Image image) {
+    public List<Comment> fetchCommentsForImage(final Image image, final CommentCursor olderThan,
+                                               final int maxResults) {
         log.info("Fetch comments for the image.");
-        final EntityManager em = emf.createEntityManager();
-        final TypedQuery<Comment> query =
-                em.createQuery("SELECT c from Comment c where c.image = :image", Comment.class)
-                  .setParameter("image", image);
-        final List<Comment> resultList = query.getResultList();
-        return resultList;
+        //The commenters are fetched in the same statement, so the number of queries does not grow with the comments
+        //The result is kept in the query cache until a comment is written, a cached result only holds the comment ids
+        // so the comments and their commenters are then read from the second-level cache
+        final TypedQuery<Comment> query;
+        if (olderThan == null) {
+            query = em.createQuery("SELECT c from Comment c where c.image = :image "
+                                   + "order by c.createdDate desc, c.id desc", Comment.class);
+        } else {
+            query = em.createQuery("SELECT c from Comment c where c.image = :image and c.createdDate <= :createdDate "
+                                   + "and (c.createdDate < :createdDate or c.id < :id) "
+                                   + "order by c.createdDate desc, c.id desc", Comment.class)
+                      .setParameter("createdDate", olderThan.getCreatedDate())
+                      .setParameter("id", olderThan.getId());
+        }
+        query.setParameter("image", image)
+             .setMaxResults(maxResults)
+             .setHint(ImageRepository.LOAD_GRAPH, em.getEntityGraph(Comment.WITH_USER_GRAPH))
+             .setHint(QueryHints.CACHEABLE, true)
+             .setHint(QueryHints.CACHE_REGION, "commentsForImage");
+        final List<Comment> comments = query.getResultList();
+        for (final Comment comment : comments) {
+            Hibernate.initialize(comment.getUser());
+        }
+        return comments;
     }
 }
@@ -0,0 +1,32 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.DataMigration;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Date;
+
+@Repository
+public class DataMigrationRepository {
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    //The method receives the name of a one-off migration and returns whether the calling transaction should apply it
+    //Nodes starting together wait on an advisory lock held until the transaction ends, so only the first applies it
+    // and the others find it recorded once that transaction has committed
+    //The migration is recorded in the calling transaction, a migration that fails is rolled back with its record
+    @Transactional(propagation = Propagation.MANDATORY)
+    public boolean begin(final String name) {
+        em.createNativeQuery("SELECT 1 FROM (SELECT pg_advisory_xact_lock(hashtext(:name))) locked")
+          .setParameter("name", name)
+          .getSingleResult();
+        if (em.find(DataMigration.class, name) != null) {
+            return false;
+        }
+        em.persist(new DataMigration(name, new Date()));
+        return true;
+    }
+}
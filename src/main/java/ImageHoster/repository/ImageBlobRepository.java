@@ -0,0 +1,163 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.ImageBlob;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.query.NativeQuery;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reference counts of the files in the content-addressed image storage. The counts are changed with native upserts so
+ * two uploads of the same bytes can not race each other into a duplicate row.
+ * <p>
+ * Registering a file is a unit of work of its own, run after writing its bytes, so it opens its own short transaction.
+ * Reclaiming a file joins the transaction the reclaimer deletes the bytes in, and counting references always joins
+ * the transaction of the image that makes or drops them.
+ */
+@Slf4j
+@Repository
+public class ImageBlobRepository {
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    /**
+     * Record a freshly stored file with no references, so it is reclaimed if the upload never gets to use it. A known
+     * file that has no references starts its grace period again, so it is not reclaimed while the upload is using it.
+     *
+     * @param storageKey - String
+     * @param fileSize   - long
+     */
+    @Transactional
+    public void registerImageFile(final String storageKey, final long fileSize) {
+        imageBlobUpdate("INSERT INTO image_blobs (storage_key, file_size, ref_count, orphaned_at) "
+                             + "VALUES (:storageKey, :fileSize, 0, now()) ON CONFLICT (storage_key) DO UPDATE "
+                             + "SET orphaned_at = now() WHERE image_blobs.ref_count = 0")
+          .setParameter("storageKey", storageKey)
+          .setParameter("fileSize", fileSize)
+          .executeUpdate();
+    }
+
+    /**
+     * Count the references of files stored before reference counting existed. Files that already have a row are left
+     * alone, so running it again is harmless.
+     */
+    @Transactional
+    public void registerUncountedImageFiles() {
+        final int registered =
+                imageBlobUpdate("INSERT INTO image_blobs (storage_key, ref_count) "
+                                     + "SELECT storage_key, count(*) FROM ("
+                                     + "SELECT storage_key FROM images WHERE storage_key IS NOT NULL "
+                                     + "UNION ALL SELECT storage_key FROM image_thumbnails) refs "
+                                     + "GROUP BY storage_key ON CONFLICT (storage_key) DO NOTHING")
+                  .executeUpdate();
+        if (registered > 0) {
+            log.info("Registered {} image files stored before reference counting", registered);
+        }
+    }
+
+    /**
+     * Add a reference to each file, inside the transaction of the caller. All the references are added with a single
+     * statement, a file given more than once gets a reference for each time.
+     *
+     * @param storageKeys - Collection<String>
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void retain(final Collection<String> storageKeys) {
+        if (storageKeys.isEmpty()) {
+            return;
+        }
+        //Rows are locked in key order, so two transactions retaining the same files can not deadlock
+        final Map<String, Integer> references = new TreeMap<>();
+        for (final String storageKey : storageKeys) {
+            references.merge(storageKey, 1, Integer::sum);
+        }
+        final StringBuilder sql = new StringBuilder("INSERT INTO image_blobs (storage_key, ref_count) VALUES ");
+        for (int i = 0; i < references.size(); i++) {
+            sql.append(i == 0 ? "" : ", ")
+               .append("(:storageKey").append(i).append(", :references").append(i).append(')');
+        }
+        sql.append(" ON CONFLICT (storage_key) DO UPDATE "
+                   + "SET ref_count = image_blobs.ref_count + excluded.ref_count, orphaned_at = NULL");
+
+        final Query query = imageBlobUpdate(sql.toString());
+        int i = 0;
+        for (final Map.Entry<String, Integer> reference : references.entrySet()) {
+            query.setParameter("storageKey" + i, reference.getKey());
+            query.setParameter("references" + i, reference.getValue());
+            i++;
+        }
+        query.executeUpdate();
+    }
+
+    /**
+     * Drop a reference to each file, inside the transaction of the caller. A file losing its last reference starts its
+     * grace period.
+     *
+     * @param storageKeys - Collection<String>
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void release(final Collection<String> storageKeys) {
+        for (final String storageKey : storageKeys) {
+            imageBlobUpdate("UPDATE image_blobs SET ref_count = ref_count - 1, "
+                                 + "orphaned_at = CASE WHEN ref_count = 1 THEN now() ELSE orphaned_at END "
+                                 + "WHERE storage_key = :storageKey AND ref_count > 0")
+              .setParameter("storageKey", storageKey)
+              .executeUpdate();
+        }
+    }
+
+    /**
+     * Fetch files that have had no reference since before the cutoff.
+     *
+     * @param cutoff     - Date
+     * @param maxResults - int
+     *
+     * @return List<String>
+     */
+    @Transactional(readOnly = true)
+    public List<String> findReclaimable(final Date cutoff, final int maxResults) {
+        return em.createQuery("SELECT b.storageKey from ImageBlob b where b.refCount = 0 and b.orphanedAt < :cutoff",
+                              String.class)
+                 .setParameter("cutoff", cutoff)
+                 .setMaxResults(maxResults)
+                 .getResultList();
+    }
+
+    /**
+     * Forget a file if it is still unreferenced and past its grace period, inside the transaction of the caller. The
+     * caller may delete the bytes only when this returns true, and must do so before it commits: the deleted row
+     * stays locked until then, so a registration of the same bytes waits for the bytes to be gone and stores them
+     * again.
+     *
+     * @param storageKey - String
+     * @param cutoff     - Date
+     *
+     * @return boolean
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public boolean deleteIfReclaimable(final String storageKey, final Date cutoff) {
+        final int deleted =
+                em.createQuery("DELETE from ImageBlob b where b.storageKey = :storageKey and b.refCount = 0 "
+                               + "and b.orphanedAt < :cutoff")
+                  .setParameter("storageKey", storageKey)
+                  .setParameter("cutoff", cutoff)
+                  .executeUpdate();
+        return deleted == 1;
+    }
+
+    //Native statements on image_blobs, declared as such so Hibernate keeps the second-level cache regions of the other
+    // tables instead of clearing them all
+    private Query imageBlobUpdate(final String sql) {
+        return em.createNativeQuery(sql).unwrap(NativeQuery.class).addSynchronizedEntityClass(ImageBlob.class);
+    }
+}
@@ -1,57 +1,127 @@
 package ImageHoster.repository;
 
 import ImageHoster.model.Image;
+import ImageHoster.model.ImageCursor;
+import ImageHoster.model.ImageSearchDocument;
+import ImageHoster.model.ImageTile;
+import ImageHoster.model.Tag;
+import org.hibernate.query.NativeQuery;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
-import javax.persistence.EntityTransaction;
 import javax.persistence.NoResultException;
-import javax.persistence.PersistenceUnit;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 @Repository
 public class ImageRepository {
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
+    //Fetch plans are applied as load graphs. Every relationship is mapped lazy, so a load graph fetches exactly what a
+    // fetch graph would, while a fetch graph makes Hibernate warn for each tag or user it joins in
+    static final String LOAD_GRAPH = "javax.persistence.loadgraph";
+
+    //Selects the columns of a gallery tile in a single statement, with the listing thumbnail joined in when it exists
+    private static final String IMAGE_TILES =
+            "SELECT new ImageHoster.model.ImageTile(i.id, i.title, i.date, u.username, i.storageKey, t) from Image i "
+            + "join i.user u left join i.thumbnails t on key(t) = :rendition ";
+
+    //Shared EntityManager bound to the transaction of the calling service, closed by the container when it ends
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    @Autowired
+    private ImageBlobRepository imageBlobRepository;
+
+    @Autowired
+    private TagRepository tagRepository;
 
     //The method receives the Image object to be persisted in the database
-    //Creates an instance of EntityManager
-    //Starts a transaction
-    //The transaction is committed if it is successful
-    //The transaction is rolled back in case of unsuccessful transaction
+    //Adds a reference to the image file and counts the image on its tags in the same transaction
     public Image uploadImage(final Image newImage) {
-        final EntityManager em = emf.createEntityManager();
-        final EntityTransaction transaction = em.getTransaction();
+        em.persist(newImage);
+        imageBlobRepository.retain(storageKeysOf(newImage));
+        final Map<Integer, Integer> tagChanges = new HashMap<>();
+        countTags(tagChanges, newImage.getTags(), 1);
+        tagRepository.countImages(tagChanges);
+        return newImage;
+    }
 
-        try {
-            transaction.begin();
+    //The method receives the Image objects to be persisted in the database, the inserts are sent in JDBC batches
+    //Adds the references to all their image files and counts them on their tags with one statement each in the same
+    // transaction
+    public void uploadImages(final List<Image> newImages) {
+        final List<String> storageKeys = new ArrayList<>();
+        final Map<Integer, Integer> tagChanges = new HashMap<>();
+        for (final Image newImage : newImages) {
             em.persist(newImage);
-            transaction.commit();
-        } catch (final Exception e) {
-            transaction.rollback();
+            storageKeys.addAll(storageKeysOf(newImage));
+            countTags(tagChanges, newImage.getTags(), 1);
         }
-        return newImage;
+        imageBlobRepository.retain(storageKeys);
+        tagRepository.countImages(tagChanges);
+    }
+
+    //Executes JPQL query to fetch the tiles of the page of images that come after the cursor in the gallery, newest
+    // first
+    //Starts from the newest image if there is no cursor
+    //The query walks the (date, id) index from the cursor, so its cost does not depend on the number of images
+    public List<ImageTile> getImageTilesOlderThan(final ImageCursor cursor, final int maxResults) {
+        final TypedQuery<ImageTile> query;
+        if (cursor == null) {
+            query = em.createQuery(IMAGE_TILES + "order by i.date desc, i.id desc", ImageTile.class);
+        } else {
+            query = em.createQuery(IMAGE_TILES + "where i.date <= :date and (i.date < :date or i.id < :id) "
+                                   + "order by i.date desc, i.id desc", ImageTile.class)
+                      .setParameter("date", cursor.getDate())
+                      .setParameter("id", cursor.getId());
+        }
+        return query.setParameter("rendition", ImageTile.RENDITION)
+                    .setMaxResults(maxResults)
+                    .getResultList();
     }
 
-    //The method creates an instance of EntityManager
-    //Executes JPQL query to fetch all the images from the database
-    //Returns the list of all the images fetched from the database
-    public List<Image> getAllImages() {
-        final EntityManager em = emf.createEntityManager();
-        final TypedQuery<Image> query = em.createQuery("SELECT i from Image i", Image.class);
-        final List<Image> resultList = query.getResultList();
+    //Executes JPQL query to fetch the tiles of the page of images that come before the cursor in the gallery, oldest
+    // first
+    public List<ImageTile> getImageTilesNewerThan(final ImageCursor cursor, final int maxResults) {
+        return em.createQuery(IMAGE_TILES + "where i.date >= :date and (i.date > :date or i.id > :id) "
+                              + "order by i.date asc, i.id asc", ImageTile.class)
+                 .setParameter("date", cursor.getDate())
+                 .setParameter("id", cursor.getId())
+                 .setParameter("rendition", ImageTile.RENDITION)
+                 .setMaxResults(maxResults)
+                 .getResultList();
+    }
 
-        return resultList;
+    //Executes a native query to fetch the ids of the images tagged with the tag that come after the given image id,
+    // newest first
+    //Starts from the newest image if there is no image id
+    //The query only walks the (tags_id, images_id) index of the join table, so its cost does not depend on the number
+    // of images of the tag
+    public List<Integer> getImageIdsForTagOlderThan(final Integer tagId, final Integer imageId, final int maxResults) {
+        return imageIdsForTag("SELECT images_id FROM images_tags WHERE tags_id = :tagId"
+                              + (imageId == null ? "" : " AND images_id < :imageId")
+                              + " ORDER BY images_id DESC", tagId, imageId, maxResults);
+    }
+
+    //Executes a native query to fetch the ids of the images tagged with the tag that come before the given image id,
+    // oldest first
+    public List<Integer> getImageIdsForTagNewerThan(final Integer tagId, final Integer imageId, final int maxResults) {
+        return imageIdsForTag("SELECT images_id FROM images_tags WHERE tags_id = :tagId AND images_id > :imageId "
+                              + "ORDER BY images_id ASC", tagId, imageId, maxResults);
     }
 
-    //The method creates an instance of EntityManager
     //Executes JPQL query to fetch the image from the database with corresponding title
     //Returns the image in case the image is found in the database
     //Returns null if no image is found in the database
     public Image getImageByTitle(final String title) {
-        final EntityManager em = emf.createEntityManager();
         try {
             final TypedQuery<Image> typedQuery =
                     em.createQuery("SELECT i from Image i where i.title =:title", Image.class)
@@ -62,55 +132,203 @@ public class ImageRepository {
         }
     }
 
-    //The method creates an instance of EntityManager
+    //Executes JPQL query to fetch the tiles of the images with the given ids, in no particular order
+    public List<ImageTile> getImageTiles(final Collection<Integer> imageIds) {
+        if (imageIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return em.createQuery(IMAGE_TILES + "where i.id in :imageIds", ImageTile.class)
+                 .setParameter("rendition", ImageTile.RENDITION)
+                 .setParameter("imageIds", imageIds)
+                 .getResultList();
+    }
+
+    //Executes JPQL queries to fetch the text of the images with an id greater than the given one, in id order
+    //The tag names of the whole page of images are fetched with a single query
+    public List<ImageSearchDocument> getSearchDocuments(final Integer afterId, final int maxResults) {
+        final List<Object[]> images =
+                em.createQuery("SELECT i.id, i.title, i.description from Image i where i.id > :afterId order by i.id",
+                               Object[].class)
+                  .setParameter("afterId", afterId)
+                  .setMaxResults(maxResults)
+                  .getResultList();
+        if (images.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final Map<Integer, List<String>> tagNames = new HashMap<>();
+        for (final Object[] image : images) {
+            tagNames.put((Integer) image[0], new ArrayList<>());
+        }
+        final List<Object[]> tags =
+                em.createQuery("SELECT i.id, t.name from Image i join i.tags t where i.id in :imageIds", Object[].class)
+                  .setParameter("imageIds", tagNames.keySet())
+                  .getResultList();
+        for (final Object[] tag : tags) {
+            tagNames.get((Integer) tag[0]).add((String) tag[1]);
+        }
+
+        final List<ImageSearchDocument> documents = new ArrayList<>();
+        for (final Object[] image : images) {
+            documents.add(new ImageSearchDocument((Integer) image[0], (String) image[1], (String) image[2],
+                                                  tagNames.get((Integer) image[0])));
+        }
+        return documents;
+    }
+
     //Executes JPQL query to fetch the image from the database with corresponding id
+    //The fetch plan names the entity graph of Image that is loaded along with it in the same statement
     //Returns the image fetched from the database
-    public Image getImage(final Integer imageId) {
-        final EntityManager em = emf.createEntityManager();
-        final TypedQuery<Image> typedQuery = em.createQuery("SELECT i from Image i where i.id =:imageId", Image.class)
-                                               .setParameter("imageId", imageId);
-        final Image image = typedQuery.getSingleResult();
-        return image;
+    public Image getImage(final Integer imageId, final String fetchPlan) {
+        final TypedQuery<Image> typedQuery =
+                em.createQuery("SELECT distinct i from Image i where i.id =:imageId", Image.class)
+                  .setParameter("imageId", imageId)
+                  .setHint(LOAD_GRAPH, em.getEntityGraph(fetchPlan));
+        return typedQuery.getSingleResult();
+    }
+
+    //Executes JPQL query to count one more comment on the image with corresponding id
+    //The count is changed in the database rather than read and written back, so concurrent comments are all counted
+    public void incrementCommentCount(final Integer imageId) {
+        em.createQuery("UPDATE Image i SET i.commentCount = i.commentCount + 1 WHERE i.id = :imageId")
+          .setParameter("imageId", imageId)
+          .executeUpdate();
+    }
+
+    //Executes a native query to count the comments of the images commented on before images counted their comments
+    //Images that already have a count are left alone, so running it again is harmless
+    //Returns the number of images counted
+    public int countUncountedComments() {
+        return em.createNativeQuery("UPDATE images SET comment_count = counted.comments FROM "
+                                    + "(SELECT image_id, count(*) AS comments FROM comment GROUP BY image_id) counted "
+                                    + "WHERE images.id = counted.image_id AND images.comment_count = 0")
+                 .unwrap(NativeQuery.class)
+                 .addSynchronizedEntityClass(Image.class)
+                 .executeUpdate();
+    }
+
+    //Returns whether the images table still has the Base64 'imageFile' column written before images moved to the
+    // ImageStorage. The column is no longer mapped, so a schema created since then does not have it
+    public boolean hasLegacyImageFiles() {
+        final Number columns =
+                (Number) em.createNativeQuery("SELECT count(*) FROM information_schema.columns "
+                                              + "WHERE table_schema = current_schema() AND table_name = 'images' "
+                                              + "AND column_name = 'imagefile'")
+                           .getSingleResult();
+        return columns.intValue() > 0;
+    }
+
+    //Executes a native query to read the ids and Base64 'imageFile' column of the images after the given id that
+    // were never moved to the ImageStorage, in the order of their ids
+    public List<Object[]> getLegacyImageFiles(final int afterId, final int maxResults) {
+        @SuppressWarnings("unchecked")
+        final List<Object[]> resultList =
+                em.createNativeQuery("SELECT id, imageFile FROM images WHERE id > :afterId AND storage_key IS NULL "
+                                     + "AND imageFile IS NOT NULL ORDER BY id")
+                  .setParameter("afterId", afterId)
+                  .setMaxResults(maxResults)
+                  .getResultList();
+        return resultList;
+    }
+
+    //The method receives the id of an image whose Base64 data was written to the ImageStorage, and the stored file
+    //Points the image at the file, clears its Base64 data and adds a reference to the file in the same transaction
+    public void moveLegacyImageFile(final Integer imageId, final String storageKey, final long fileSize) {
+        em.createNativeQuery("UPDATE images SET storage_key = :storageKey, file_size = :fileSize, imageFile = NULL "
+                             + "WHERE id = :imageId")
+          .unwrap(NativeQuery.class)
+          .addSynchronizedEntityClass(Image.class)
+          .setParameter("storageKey", storageKey)
+          .setParameter("fileSize", fileSize)
+          .setParameter("imageId", imageId)
+          .executeUpdate();
+        imageBlobRepository.retain(Collections.singletonList(storageKey));
+    }
+
+    //Drops the Base64 'imageFile' column once every image was moved to the ImageStorage
+    public void dropLegacyImageFiles() {
+        em.createNativeQuery("ALTER TABLE images DROP COLUMN imageFile")
+          .unwrap(NativeQuery.class)
+          .addSynchronizedEntityClass(Image.class)
+          .executeUpdate();
+    }
+
+    //The method receives the id of an image, the storage key the thumbnails were generated from and the thumbnails
+    //Replaces the thumbnails of the image, unless the image was deleted or got a new file while they were generated
+    //Moves the references from the replaced thumbnails to the new ones in the same transaction
+    //Returns whether the thumbnails were recorded
+    public boolean updateThumbnails(final Integer imageId, final String sourceStorageKey,
+                                    final Map<String, String> thumbnails) {
+        final Image image = em.find(Image.class, imageId);
+        if (image == null || !sourceStorageKey.equals(image.getStorageKey())) {
+            return false;
+        }
+        final Collection<String> replaced = new ArrayList<>(image.getThumbnails().values());
+        image.getThumbnails().clear();
+        image.getThumbnails().putAll(thumbnails);
+        imageBlobRepository.retain(thumbnails.values());
+        imageBlobRepository.release(replaced);
+        return true;
     }
 
     //The method receives the Image object to be updated in the database
-    //Creates an instance of EntityManager
-    //Starts a transaction
-    //The transaction is committed if it is successful
-    //The transaction is rolled back in case of unsuccessful transaction
+    //The thumbnails of the previous image are kept if the image file did not change
+    //Moves the references from the previous image file and thumbnails to the updated ones in the same transaction
+    //Only the tags that were added or removed have their count of images changed
     public void updateImage(final Image updatedImage) {
-        final EntityManager em = emf.createEntityManager();
-        final EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            em.merge(updatedImage);
-            transaction.commit();
-        } catch (final Exception e) {
-            transaction.rollback();
+        final Image previousImage = em.find(Image.class, updatedImage.getId());
+        final List<String> previousStorageKeys = storageKeysOf(previousImage);
+        if (Objects.equals(updatedImage.getStorageKey(), previousImage.getStorageKey())) {
+            updatedImage.setThumbnails(new HashMap<>(previousImage.getThumbnails()));
         }
+        final Map<Integer, Integer> tagChanges = new HashMap<>();
+        countTags(tagChanges, previousImage.getTags(), -1);
+        countTags(tagChanges, updatedImage.getTags(), 1);
+        final Image mergedImage = em.merge(updatedImage);
+        imageBlobRepository.retain(storageKeysOf(mergedImage));
+        imageBlobRepository.release(previousStorageKeys);
+        tagRepository.countImages(tagChanges);
     }
 
     //The method receives the Image id of the image to be deleted in the database
-    //Creates an instance of EntityManager
-    //Starts a transaction
     //Get the image with corresponding image id from the database
     //This changes the state of the image model from detached state to persistent state, which is very essential to
     // use the remove() method
     //If you use remove() method on the object which is not in persistent state, an exception is thrown
-    //The transaction is committed if it is successful
-    //The transaction is rolled back in case of unsuccessful transaction
+    //Drops the references to the image file and thumbnails and uncounts the image from its tags in the same
+    // transaction
     public void deleteImage(final Integer imageId) {
-        final EntityManager em = emf.createEntityManager();
-        final EntityTransaction transaction = em.getTransaction();
+        final Image image = em.find(Image.class, imageId);
+        imageBlobRepository.release(storageKeysOf(image));
+        final Map<Integer, Integer> tagChanges = new HashMap<>();
+        countTags(tagChanges, image.getTags(), -1);
+        em.remove(image);
+        tagRepository.countImages(tagChanges);
+    }
 
-        try {
-            transaction.begin();
-            final Image image = em.find(Image.class, imageId);
-            em.remove(image);
-            transaction.commit();
-        } catch (final Exception e) {
-            transaction.rollback();
+    @SuppressWarnings("unchecked")
+    private List<Integer> imageIdsForTag(final String sql, final Integer tagId, final Integer imageId,
+                                         final int maxResults) {
+        final Query query = em.createNativeQuery(sql).setParameter("tagId", tagId);
+        if (imageId != null) {
+            query.setParameter("imageId", imageId);
+        }
+        return query.setMaxResults(maxResults).getResultList();
+    }
+
+    //Adds the change to the number of images counted on each of the tags
+    private void countTags(final Map<Integer, Integer> tagChanges, final List<Tag> tags, final int change) {
+        for (final Tag tag : tags) {
+            tagChanges.merge(tag.getId(), change, Integer::sum);
+        }
+    }
+
+    //Storage keys of the image file and thumbnails an image refers to
+    private List<String> storageKeysOf(final Image image) {
+        final List<String> storageKeys = new ArrayList<>();
+        if (image.getStorageKey() != null) {
+            storageKeys.add(image.getStorageKey());
         }
+        storageKeys.addAll(image.getThumbnails().values());
+        return storageKeys;
     }
 }
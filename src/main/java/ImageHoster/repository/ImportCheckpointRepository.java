@@ -0,0 +1,25 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.ImportCheckpoint;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Date;
+
+@Repository
+public class ImportCheckpointRepository {
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    //The method returns the number of entries of the manifest already imported, 0 if it was never imported
+    public int getPosition(final String manifest) {
+        final ImportCheckpoint checkpoint = em.find(ImportCheckpoint.class, manifest);
+        return checkpoint == null ? 0 : checkpoint.getPosition();
+    }
+
+    //The method records the number of entries of the manifest imported, in the transaction importing them
+    public void savePosition(final String manifest, final int position) {
+        em.merge(new ImportCheckpoint(manifest, position, new Date()));
+    }
+}
@@ -0,0 +1,57 @@
+package ImageHoster.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Collection;
+
+/**
+ * Sequences handing out the ids of the entities. Each entity has a sequence of its own, and every call to it reserves
+ * a block of ids that the session then hands out from memory.
+ */
+@Slf4j
+@Repository
+public class SequenceRepository {
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    /**
+     * Move every entity sequence past the highest id of its table. Rows inserted before the entity had its own
+     * sequence took their ids from the shared one, and a sequence that is not behind its table is left alone, so
+     * running it again is harmless.
+     */
+    public void alignSequences() {
+        final Collection<EntityPersister> persisters = em.getEntityManagerFactory()
+                                                         .unwrap(SessionFactoryImplementor.class)
+                                                         .getMetamodel()
+                                                         .entityPersisters()
+                                                         .values();
+        for (final EntityPersister persister : persisters) {
+            if (!(persister.getIdentifierGenerator() instanceof SequenceStyleGenerator)
+                || !(persister instanceof AbstractEntityPersister)) {
+                continue;
+            }
+            final SequenceStyleGenerator generator = (SequenceStyleGenerator) persister.getIdentifierGenerator();
+            final AbstractEntityPersister entity = (AbstractEntityPersister) persister;
+            final String sequence = generator.getDatabaseStructure().getName();
+            //The block of the last value handed out is still in use when it has been called
+            final int aligned =
+                    em.createNativeQuery("SELECT setval('" + sequence + "', t.max_id + 1, false) "
+                                         + "FROM (SELECT max(" + entity.getIdentifierColumnNames()[0] + ") AS max_id "
+                                         + "FROM " + entity.getTableName() + ") t, " + sequence + " s "
+                                         + "WHERE t.max_id >= s.last_value + CASE WHEN s.is_called THEN "
+                                         + generator.getDatabaseStructure().getIncrementSize() + " ELSE 0 END")
+                      .getResultList()
+                      .size();
+            if (aligned > 0) {
+                log.info("Moved sequence {} past the ids already in {}", sequence, entity.getTableName());
+            }
+        }
+    }
+}
@@ -1,42 +1,188 @@
 package ImageHoster.repository;
 
 import ImageHoster.model.Tag;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.query.NativeQuery;
 import org.springframework.stereotype.Repository;
 
 import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
-import javax.persistence.EntityTransaction;
 import javax.persistence.NoResultException;
-import javax.persistence.PersistenceUnit;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
+@Slf4j
 @Repository
 public class TagRepository {
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
+    //Keeps one tag of every group of tags whose names differ only in case or surrounding spaces, preferring a tag that
+    // already has a normalized name
+    private static final String DUPLICATE_TAGS =
+            "WITH ranked AS (SELECT id, first_value(id) OVER ("
+            + "PARTITION BY coalesce(normalized_name, lower(btrim(name))) "
+            + "ORDER BY normalized_name IS NULL, id) AS keep FROM tags) ";
 
-    public Tag createTag(final Tag tag) {
-        final EntityManager em = emf.createEntityManager();
-        final EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            em.persist(tag);
-            transaction.commit();
-        } catch (final Exception e) {
-            transaction.rollback();
-        }
-        return tag;
-    }
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
 
     public Tag findTag(final String tagName) {
-        final EntityManager em = emf.createEntityManager();
         try {
-            final TypedQuery<Tag> typedQuery = em.createQuery("SELECT t from Tag t where t.name =:tagName", Tag.class)
-                                                 .setParameter("tagName", tagName);
+            final TypedQuery<Tag> typedQuery =
+                    em.createQuery("SELECT t from Tag t where t.normalizedName =:normalizedName", Tag.class)
+                      .setParameter("normalizedName", Tag.normalize(tagName));
             return typedQuery.getSingleResult();
         } catch (final NoResultException nre) {
             return null;
         }
     }
+
+    /**
+     * Fetch the tags with the given normalized names in a single query.
+     *
+     * @param normalizedNames - Collection<String>
+     *
+     * @return List<Tag>, in no particular order
+     */
+    public List<Tag> findTags(final Collection<String> normalizedNames) {
+        if (normalizedNames.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return em.createQuery("SELECT t from Tag t where t.normalizedName in :normalizedNames", Tag.class)
+                 .setParameter("normalizedNames", normalizedNames)
+                 .getResultList();
+    }
+
+    /**
+     * Insert the tags in a single statement. A tag whose normalized name already exists, or is inserted meanwhile by
+     * a concurrent transaction, is skipped instead of failing on the unique index. The ids come from the block of ids
+     * the session holds for tags, so the sequence is only called once a block is used up.
+     *
+     * @param namesByNormalizedName - Map<String, String>, the name to create each normalized name with
+     */
+    public void insertMissingTags(final Map<String, String> namesByNormalizedName) {
+        if (namesByNormalizedName.isEmpty()) {
+            return;
+        }
+        final StringBuilder sql = new StringBuilder("INSERT INTO tags (id, name, normalized_name) VALUES ");
+        for (int i = 0; i < namesByNormalizedName.size(); i++) {
+            sql.append(i == 0 ? "" : ", ")
+               .append("(:id").append(i).append(", :name").append(i).append(", :normalizedName").append(i).append(')');
+        }
+        sql.append(" ON CONFLICT (normalized_name) DO NOTHING");
+
+        final SessionImplementor session = em.unwrap(SessionImplementor.class);
+        final IdentifierGenerator ids = session.getEntityPersister(Tag.class.getName(), null).getIdentifierGenerator();
+        final Query query = tagUpdate(sql.toString());
+        int i = 0;
+        for (final Map.Entry<String, String> name : namesByNormalizedName.entrySet()) {
+            query.setParameter("id" + i, ids.generate(session, null));
+            query.setParameter("name" + i, name.getValue());
+            query.setParameter("normalizedName" + i, name.getKey());
+            i++;
+        }
+        query.executeUpdate();
+    }
+
+    /**
+     * Fetch the tags used by the most images, most used first.
+     *
+     * @param maxResults - int
+     *
+     * @return List<Tag>
+     */
+    public List<Tag> findTopTags(final int maxResults) {
+        return em.createQuery("SELECT t from Tag t where t.imageCount > 0 order by t.imageCount desc, t.id desc",
+                              Tag.class)
+                 .setMaxResults(maxResults)
+                 .getResultList();
+    }
+
+    /**
+     * Change the number of images counted on each tag in a single statement. The counts are changed in the database
+     * rather than read and written back, so images tagged concurrently are all counted, and the tags are updated in
+     * id order so concurrent transactions sharing tags lock them in the same order.
+     *
+     * @param changes - Map<Integer, Integer>, number of images to add to the count of each tag id, negative to remove
+     */
+    public void countImages(final Map<Integer, Integer> changes) {
+        final Map<Integer, Integer> sorted = new TreeMap<>(changes);
+        sorted.values().removeIf(change -> change == 0);
+        if (sorted.isEmpty()) {
+            return;
+        }
+        final StringBuilder sql = new StringBuilder("UPDATE tags SET image_count = tags.image_count + changes.images "
+                                                    + "FROM (VALUES ");
+        for (int i = 0; i < sorted.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append("(:id").append(i).append(", :images").append(i).append(')');
+        }
+        sql.append(") AS changes (id, images) WHERE tags.id = changes.id");
+
+        final Query query = tagUpdate(sql.toString());
+        int i = 0;
+        for (final Map.Entry<Integer, Integer> change : sorted.entrySet()) {
+            query.setParameter("id" + i, change.getKey());
+            query.setParameter("images" + i, change.getValue());
+            i++;
+        }
+        query.executeUpdate();
+    }
+
+    /**
+     * Count the images of the tags created before tags counted their images. Only the tags with no images counted are
+     * looked at, so once they are counted it reads nothing but the few rows of the tags that are really unused.
+     *
+     * @return int, number of tags counted
+     */
+    public int countUncountedImages() {
+        return tagUpdate("UPDATE tags SET image_count = counted.images FROM "
+                         + "(SELECT tags_id, count(*) AS images FROM images_tags "
+                         + "WHERE tags_id IN (SELECT id FROM tags WHERE image_count = 0) GROUP BY tags_id) counted "
+                         + "WHERE tags.id = counted.tags_id")
+                .executeUpdate();
+    }
+
+    /**
+     * Give the tags created before names were normalized their normalized name. Tags that then share a name are
+     * merged into one, and the images using them are moved to the tag that is kept without being tagged twice.
+     */
+    public void normalizeTagNames() {
+        final Number unnormalized =
+                (Number) em.createNativeQuery("SELECT count(*) FROM tags WHERE normalized_name IS NULL")
+                           .getSingleResult();
+        if (unnormalized.intValue() == 0) {
+            return;
+        }
+        tagUpdate(DUPLICATE_TAGS + "UPDATE images_tags SET tags_id = ranked.keep FROM ranked "
+                  + "WHERE images_tags.tags_id = ranked.id AND ranked.id <> ranked.keep")
+                .executeUpdate();
+        //The tags that are kept have their images counted again
+        tagUpdate(DUPLICATE_TAGS + "UPDATE tags SET image_count = 0 FROM ranked "
+                  + "WHERE tags.id = ranked.keep AND ranked.id <> ranked.keep")
+                .executeUpdate();
+        tagUpdate("DELETE FROM images_tags a USING images_tags b WHERE a.ctid > b.ctid "
+                  + "AND a.images_id = b.images_id AND a.tags_id = b.tags_id")
+                .executeUpdate();
+        final int merged =
+                tagUpdate(DUPLICATE_TAGS + "DELETE FROM tags USING ranked "
+                          + "WHERE tags.id = ranked.id AND ranked.id <> ranked.keep")
+                        .executeUpdate();
+        tagUpdate("UPDATE tags SET normalized_name = lower(btrim(name)) WHERE normalized_name IS NULL")
+                .executeUpdate();
+        log.info("Normalized the names of {} tags, {} duplicate tags were merged", unnormalized, merged);
+    }
+
+    //Native statements on tags and images_tags, declared as such so Hibernate evicts the cached tags and keeps the
+    // second-level cache regions of the other tables
+    private Query tagUpdate(final String sql) {
+        return em.createNativeQuery(sql)
+                 .unwrap(NativeQuery.class)
+                 .addSynchronizedEntityClass(Tag.class)
+                 .addSynchronizedQuerySpace("images_tags");
+    }
 }
@@ -4,54 +4,83 @@ import ImageHoster.model.User;
 import org.springframework.stereotype.Repository;
 
 import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
-import javax.persistence.EntityTransaction;
 import javax.persistence.NoResultException;
-import javax.persistence.PersistenceUnit;
+import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 @Repository
 public class UserRepository {
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
 
     //The method receives the User object to be persisted in the database
-    //Creates an instance of EntityManager
-    //Starts a transaction
-    //The transaction is committed if it is successful
-    //The transaction is rolled back in case of unsuccessful transaction
     public void registerUser(final User newUser) {
-        final EntityManager em = emf.createEntityManager();
-        final EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            //persist() method changes the state of the model object from transient state to persistence state
-            em.persist(newUser);
-            transaction.commit();
-        } catch (final Exception e) {
-            transaction.rollback();
-        }
+        //persist() method changes the state of the model object from transient state to persistence state
+        em.persist(newUser);
     }
 
-    //The method receives the entered username and password
-    //Creates an instance of EntityManager
-    //Executes JPQL query to fetch the user from User class where username is equal to received username and password
-    // is equal to received password
+    //The method receives the entered username
+    //Executes JPQL query to fetch the user from User class where username is equal to received username, which is a
+    // lookup on the unique index of the username
+    //The password is checked by the caller, since only the hash of the password is stored
+    //The profile is fetched along with the user because every page shows the full name of the logged in user
     //Returns the fetched user
     //Returns null in case of NoResultException
-    public User checkUser(final String username, final String password) {
+    public User findUser(final String username) {
         try {
-            final EntityManager em = emf.createEntityManager();
             final TypedQuery<User> typedQuery =
-                    em.createQuery("SELECT u FROM User u WHERE u.username = :username AND u.password = :password",
+                    em.createQuery("SELECT u FROM User u join fetch u.profile WHERE u.username = :username",
                                    User.class);
             typedQuery.setParameter("username", username);
-            typedQuery.setParameter("password", password);
 
             return typedQuery.getSingleResult();
         } catch (final NoResultException nre) {
             return null;
         }
     }
+
+    //Executes JPQL query to find whether a user already has the received username
+    public boolean isUsernameTaken(final String username) {
+        return !em.createQuery("SELECT u.id FROM User u WHERE u.username = :username", Integer.class)
+                  .setParameter("username", username)
+                  .setMaxResults(1)
+                  .getResultList()
+                  .isEmpty();
+    }
+
+    //Executes JPQL query to count the users
+    public long countUsers() {
+        return em.createQuery("SELECT count(u) FROM User u", Long.class).getSingleResult();
+    }
+
+    //Executes JPQL query to fetch the usernames of the users with an id greater than the given one, in id order
+    //Returns the id and username of each user
+    public List<Object[]> getUsernames(final Integer afterId, final int maxResults) {
+        return em.createQuery("SELECT u.id, u.username FROM User u WHERE u.id > :afterId ORDER BY u.id", Object[].class)
+                 .setParameter("afterId", afterId)
+                 .setMaxResults(maxResults)
+                 .getResultList();
+    }
+
+    //The method receives the id of a user, the password that was checked at login and the new hash of that password
+    //The password is only replaced if it did not change since it was checked, so a concurrent change is not undone
+    public void updatePassword(final Integer userId, final String checkedPassword, final String newPassword) {
+        final User user = em.find(User.class, userId);
+        if (user != null && user.getPassword().equals(checkedPassword)) {
+            user.setPassword(newPassword);
+        }
+    }
+
+    //The method receives the usernames and executes a single JPQL query to fetch the users with those names
+    public List<User> findUsers(final Collection<String> usernames) {
+        if (usernames.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return em.createQuery("SELECT u FROM User u WHERE u.username in :usernames", User.class)
+                 .setParameter("usernames", usernames)
+                 .getResultList();
+    }
 }
\ No newline at end of file
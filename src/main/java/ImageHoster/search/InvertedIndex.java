@@ -0,0 +1,235 @@
+package ImageHoster.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index from terms to the documents containing them. Each term keeps the ids of its documents in
+ * a sorted array with the weight of the term in each document, so a query intersects its terms with binary searches
+ * and a few hundred thousand documents take a few bytes per term occurrence.
+ * <p>
+ * Documents matching every term of a query are ranked by the sum of the weights of the terms, each multiplied by the
+ * inverse document frequency of the term, so rare terms count more than common ones. Ties go to the highest id.
+ */
+public class InvertedIndex {
+    private static final Comparator<Hit> RANKING =
+            Comparator.comparingDouble(Hit::getScore).thenComparingInt(Hit::getDocumentId);
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Integer, String[]> termsByDocument = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Add a document, replacing it if it is already indexed.
+     *
+     * @param documentId  - int
+     * @param termWeights - Map<String, Integer>, weight of each term in the document
+     */
+    public void put(final int documentId, final Map<String, Integer> termWeights) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(documentId);
+            for (final Map.Entry<String, Integer> term : termWeights.entrySet()) {
+                postings.computeIfAbsent(term.getKey(), key -> new Postings()).put(documentId, term.getValue());
+            }
+            termsByDocument.put(documentId, termWeights.keySet().toArray(new String[0]));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a document, if it is indexed.
+     *
+     * @param documentId - int
+     */
+    public void remove(final int documentId) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(documentId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find the documents containing every term, best match first.
+     *
+     * @param terms  - Collection<String>
+     * @param offset - int, number of best matches to skip
+     * @param limit  - int, number of matches to return
+     *
+     * @return Hits
+     */
+    public Hits search(final Collection<String> terms, final int offset, final int limit) {
+        lock.readLock().lock();
+        try {
+            final List<Postings> lists = new ArrayList<>();
+            for (final String term : new LinkedHashSet<>(terms)) {
+                final Postings list = postings.get(term);
+                if (list == null) {
+                    return new Hits(Collections.emptyList(), 0);
+                }
+                lists.add(list);
+            }
+            if (lists.isEmpty()) {
+                return new Hits(Collections.emptyList(), 0);
+            }
+            //The rarest term has the fewest candidates, the other terms are looked up in its documents
+            lists.sort(Comparator.comparingInt(list -> list.size));
+            final int documents = termsByDocument.size();
+            final double[] idf = new double[lists.size()];
+            for (int t = 0; t < lists.size(); t++) {
+                idf[t] = Math.log(1 + (double) documents / lists.get(t).size);
+            }
+
+            final int wanted = offset + limit;
+            final PriorityQueue<Hit> best = new PriorityQueue<>(Math.max(1, Math.min(wanted, 1024)), RANKING);
+            final Postings rarest = lists.get(0);
+            //Candidates come in increasing id order, so each list is searched only past the previous candidate
+            final int[] from = new int[lists.size()];
+            int total = 0;
+            candidates:
+            for (int i = 0; i < rarest.size; i++) {
+                final int documentId = rarest.ids[i];
+                double score = rarest.weights[i] * idf[0];
+                for (int t = 1; t < lists.size(); t++) {
+                    final Postings list = lists.get(t);
+                    final int position = list.seek(from[t], documentId);
+                    if (position == list.size) {
+                        break candidates;
+                    }
+                    from[t] = position;
+                    if (list.ids[position] != documentId) {
+                        continue candidates;
+                    }
+                    score += list.weights[position] * idf[t];
+                }
+                total++;
+                final Hit hit = new Hit(documentId, score);
+                if (best.size() < wanted) {
+                    best.add(hit);
+                } else if (wanted > 0 && RANKING.compare(hit, best.peek()) > 0) {
+                    best.poll();
+                    best.add(hit);
+                }
+            }
+
+            final List<Hit> ranked = new ArrayList<>(best);
+            ranked.sort(RANKING.reversed());
+            final List<Integer> ids = new ArrayList<>();
+            for (int i = offset; i < ranked.size(); i++) {
+                ids.add(ranked.get(i).getDocumentId());
+            }
+            return new Hits(ids, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of documents indexed.
+     *
+     * @return int
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return termsByDocument.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeDocument(final int documentId) {
+        final String[] terms = termsByDocument.remove(documentId);
+        if (terms == null) {
+            return;
+        }
+        for (final String term : terms) {
+            final Postings list = postings.get(term);
+            if (list != null && list.remove(documentId) && list.size == 0) {
+                postings.remove(term);
+            }
+        }
+    }
+
+    /**
+     * Ids of the documents matching a query in ranking order, with the number of documents matching it.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Hits {
+        private final List<Integer> documentIds;
+        private final int total;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Hit {
+        private final int documentId;
+        private final double score;
+    }
+
+    //Documents of one term, sorted by id. Ids are mostly added in increasing order, so inserting rarely moves much
+    private static class Postings {
+        private int[] ids = new int[4];
+        private int[] weights = new int[4];
+        private int size;
+
+        void put(final int documentId, final int weight) {
+            int position = Arrays.binarySearch(ids, 0, size, documentId);
+            if (position >= 0) {
+                weights[position] = weight;
+                return;
+            }
+            position = -position - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            System.arraycopy(weights, position, weights, position + 1, size - position);
+            ids[position] = documentId;
+            weights[position] = weight;
+            size++;
+        }
+
+        //Position of the first document from the given position on whose id is not below the given id, size if
+        // there is none. It gallops ahead before searching, so walking the whole list in order stays linear
+        int seek(final int from, final int documentId) {
+            int step = 1;
+            int low = from;
+            while (low + step < size && ids[low + step] < documentId) {
+                low += step;
+                step *= 2;
+            }
+            final int position = Arrays.binarySearch(ids, low, Math.min(low + step + 1, size), documentId);
+            return position >= 0 ? position : -position - 1;
+        }
+
+        boolean remove(final int documentId) {
+            final int position = Arrays.binarySearch(ids, 0, size, documentId);
+            if (position < 0) {
+                return false;
+            }
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            System.arraycopy(weights, position + 1, weights, position, size - position - 1);
+            size--;
+            return true;
+        }
+    }
+}
@@ -1,35 +1,79 @@
 package ImageHoster.service;
 
+import ImageHoster.config.GalleryProperties;
 import ImageHoster.model.Comment;
+import ImageHoster.model.CommentCursor;
 import ImageHoster.model.Image;
+import ImageHoster.model.KeysetPage;
 import ImageHoster.repository.CommentRepository;
+import ImageHoster.repository.DataMigrationRepository;
+import ImageHoster.repository.ImageRepository;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
+@Slf4j
 @RequiredArgsConstructor
 @Service
 public class CommentService {
+    private static final String COUNT_COMMENTS_MIGRATION = "count-image-comments";
+
     private final CommentRepository commentRepository;
+    private final ImageRepository imageRepository;
+    private final DataMigrationRepository dataMigrationRepository;
+    private final GalleryProperties galleryProperties;
 
     /**
-     * Save comment.
+     * Save comment, and count it on its image in the same transaction.
      *
      * @param comment - Comment
      */
+    @Transactional
     public void saveComment(final Comment comment) {
         commentRepository.saveComment(comment);
+        imageRepository.incrementCommentCount(comment.getImage().getId());
     }
 
     /**
-     * List Comments for an Image.
+     * List a page of the Comments for an Image, newest first. One more comment than the page size is fetched to know
+     * whether there are older comments.
      *
-     * @param image - Image
+     * @param image     - Image
+     * @param olderThan - String, cursor of the page, null for the newest comments
      *
-     * @return List<Comment>
+     * @return KeysetPage<Comment>
      */
-    public List<Comment> getCommentsForImage(final Image image) {
-        return commentRepository.fetchCommentsForImage(image);
+    @Transactional(readOnly = true)
+    public KeysetPage<Comment> getCommentsForImage(final Image image, final String olderThan) {
+        final int pageSize = galleryProperties.getCommentsPageSize();
+        final CommentCursor cursor = CommentCursor.parse(olderThan);
+        final List<Comment> comments = commentRepository.fetchCommentsForImage(image, cursor, pageSize + 1);
+        final List<Comment> page = comments.subList(0, Math.min(pageSize, comments.size()));
+        return new KeysetPage<>(page, null, comments.size() > pageSize ? cursorOf(page.get(pageSize - 1)) : null);
+    }
+
+    /**
+     * Count the comments of the images commented on before images counted their comments. Comments are counted as they
+     * are saved since then, so this runs once for the database, on the first node started, and later starts skip it.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void countUncountedComments() {
+        if (!dataMigrationRepository.begin(COUNT_COMMENTS_MIGRATION)) {
+            return;
+        }
+        final int counted = imageRepository.countUncountedComments();
+        if (counted > 0) {
+            log.info("Counted the comments of {} images", counted);
+        }
+    }
+
+    private String cursorOf(final Comment comment) {
+        return new CommentCursor(comment.getCreatedDate(), comment.getId()).toString();
     }
 }
@@ -0,0 +1,74 @@
+package ImageHoster.service;
+
+import ImageHoster.config.StorageProperties;
+import ImageHoster.repository.ImageBlobRepository;
+import ImageHoster.storage.ImageStorage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Deletes the bytes of image files nothing has referred to for the grace period. The grace period keeps a file around
+ * while an upload of the same bytes is between storing the file and committing the image that uses it.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Service
+public class ImageFileReclaimer {
+    private static final int BATCH_SIZE = 100;
+
+    private final ImageBlobRepository imageBlobRepository;
+    private final ImageStorage imageStorage;
+    private final StorageProperties storageProperties;
+    private final TransactionTemplate transactionTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void registerUncountedImageFiles() {
+        imageBlobRepository.registerUncountedImageFiles();
+    }
+
+    @Scheduled(fixedDelayString = "${imagehoster.storage.reclaim-interval:PT1M}")
+    public void reclaimUnusedImageFiles() {
+        final Date cutoff = new Date(System.currentTimeMillis() - storageProperties.getReclaimGracePeriod().toMillis());
+        List<String> storageKeys;
+        do {
+            storageKeys = imageBlobRepository.findReclaimable(cutoff, BATCH_SIZE);
+            for (final String storageKey : storageKeys) {
+                reclaim(storageKey, cutoff);
+            }
+        } while (storageKeys.size() == BATCH_SIZE);
+    }
+
+    //The bytes are deleted while the deleted row is still locked, before the transaction commits, so an upload of the
+    // same bytes registering the file meanwhile waits for them to be gone and stores them again. A file that can not
+    // be deleted keeps its row and is tried again on the next run
+    private void reclaim(final String storageKey, final Date cutoff) {
+        try {
+            final Boolean reclaimed = transactionTemplate.execute(status -> {
+                if (!imageBlobRepository.deleteIfReclaimable(storageKey, cutoff)) {
+                    return false;
+                }
+                try {
+                    imageStorage.delete(storageKey);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return true;
+            });
+            if (Boolean.TRUE.equals(reclaimed)) {
+                log.debug("Reclaimed image file {}", storageKey);
+            }
+        } catch (final UncheckedIOException e) {
+            log.error("Unable to delete image file {} -> {}", storageKey, e.getCause().getLocalizedMessage());
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package ImageHoster.service;
+
+import ImageHoster.config.ImportProperties;
+import ImageHoster.config.StorageProperties;
+import ImageHoster.model.Image;
+import ImageHoster.model.ImportManifestEntry;
+import ImageHoster.model.Tag;
+import ImageHoster.model.User;
+import ImageHoster.storage.ImageMimeTypes;
+import ImageHoster.storage.StoredImage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.PathResource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Imports a directory of images described by a manifest. The files of each batch are stored in parallel on a
+ * fork-join pool, the images of the batch are then persisted in one transaction, and their thumbnails are created on
+ * the same pool.
+ * <p>
+ * The transaction of a batch also records how many manifest entries are done, so an import that is interrupted is
+ * resumed by running it again with the same manifest. Files stored for a batch that never committed are reclaimed
+ * like any other unused file, or used again when the batch is retried. A batch that takes longer to store than the
+ * reclaim grace period may see its first files reclaimed before it commits, the transaction stores them again.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Service
+public class ImageImportService {
+    private static final String DEFAULT_MIME_TYPE = "image/jpeg";
+    private static final String DOWNLOAD_MIME_TYPE = "application/octet-stream";
+
+    private final ImageService imageService;
+    private final TagService tagService;
+    private final UserService userService;
+    private final ThumbnailService thumbnailService;
+    private final StorageProperties storageProperties;
+    private final ImportProperties importProperties;
+
+    /**
+     * Import the images of the manifest that are not imported yet.
+     *
+     * @param directory    - Path, the files of the manifest are relative to it
+     * @param manifestFile - Path
+     *
+     * @return int, number of images imported by this run
+     */
+    public int importImages(final Path directory, final Path manifestFile) throws IOException, InterruptedException {
+        final List<ImportManifestEntry> entries = ImportManifestEntry.read(manifestFile);
+        final String manifest = manifestFile.toAbsolutePath().normalize().toString();
+        final int parallelism = importProperties.getParallelism() > 0
+                                ? importProperties.getParallelism() : Runtime.getRuntime().availableProcessors();
+        final int batchSize = Math.max(1, importProperties.getBatchSize());
+
+        int position = imageService.getImportPosition(manifest);
+        if (position > 0) {
+            log.info("Resuming the import of {} after entry {} of {}", manifest, position, entries.size());
+        }
+        final long start = System.nanoTime();
+        final AtomicInteger failed = new AtomicInteger();
+        int imported = 0;
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            while (position < entries.size()) {
+                final List<ImportManifestEntry> batch =
+                        entries.subList(position, Math.min(position + batchSize, entries.size()));
+                final Map<String, PathResource> sources = new ConcurrentHashMap<>();
+                final List<Image> images = prepareBatch(directory, batch, pool, failed, sources);
+                position += batch.size();
+                imageService.importImages(images, sources, manifest, position);
+                run(pool, () -> images.parallelStream().forEach(thumbnailService::createThumbnails));
+
+                imported += images.size();
+                final double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+                log.info("Imported {} of {} entries of {}, {} failed, {} images/s", position, entries.size(),
+                         manifest, failed.get(), String.format("%.1f", imported / seconds));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return imported;
+    }
+
+    //Stores the files of the batch in parallel and builds their images, leaving out the entries that can not be
+    // imported and the tag names that do not resolve to a tag
+    //The file each storage key was read from is added to the sources, for the batch to store it again if needed
+    private List<Image> prepareBatch(final Path directory, final List<ImportManifestEntry> batch,
+                                     final ForkJoinPool pool, final AtomicInteger failed,
+                                     final Map<String, PathResource> sources) throws InterruptedException {
+        final Set<String> usernames = new HashSet<>();
+        final Set<String> tagNames = new HashSet<>();
+        for (final ImportManifestEntry entry : batch) {
+            usernames.add(entry.getOwner());
+            tagNames.addAll(entry.getTagNames());
+        }
+        final Map<String, User> owners = userService.getUsersByName(usernames).stream()
+                                                    .collect(Collectors.toMap(User::getUsername, user -> user));
+        final Map<String, Tag> tags = new HashMap<>();
+        for (final Tag tag : tagService.getOrCreateTags(tagNames)) {
+            tags.put(tag.getNormalizedName(), tag);
+        }
+
+        final List<Image> stored = call(pool, () -> batch.parallelStream()
+                                                         .map(entry -> store(directory, entry, owners, failed, sources))
+                                                         .collect(Collectors.toList()));
+        final List<Image> images = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            final Image image = stored.get(i);
+            if (image == null) {
+                continue;
+            }
+            final List<Tag> imageTags = new ArrayList<>();
+            for (final String tagName : batch.get(i).getTagNames()) {
+                final Tag tag = tags.get(Tag.normalize(tagName));
+                if (tag == null) {
+                    log.warn("Skipping tag '{}' of {}, it did not resolve to a tag", tagName, batch.get(i).getFile());
+                } else if (!imageTags.contains(tag)) {
+                    imageTags.add(tag);
+                }
+            }
+            image.setTags(imageTags);
+            images.add(image);
+        }
+        return images;
+    }
+
+    //Returns null when the entry can not be imported, the reason is logged
+    private Image store(final Path directory, final ImportManifestEntry entry, final Map<String, User> owners,
+                        final AtomicInteger failed, final Map<String, PathResource> sources) {
+        final User owner = owners.get(entry.getOwner());
+        if (owner == null) {
+            log.warn("Skipping {}, there is no user {}", entry.getFile(), entry.getOwner());
+            failed.incrementAndGet();
+            return null;
+        }
+        final Path file = directory.resolve(entry.getFile());
+        try {
+            final PathResource source = new PathResource(file);
+            final StoredImage storedImage =
+                    imageService.storeFile(source, storageProperties.getMaxFileSize().toBytes());
+            sources.put(storedImage.getKey(), source);
+            final Image image = new Image();
+            image.setTitle(entry.getTitle());
+            image.setDescription(entry.getDescription());
+            image.setDate(new Date());
+            image.setUser(owner);
+            image.setStorageKey(storedImage.getKey());
+            image.setFileSize(storedImage.getSize());
+            image.setMimeType(mimeType(file));
+            return image;
+        } catch (final IOException | RuntimeException e) {
+            log.warn("Skipping {} -> {}", entry.getFile(), e.getLocalizedMessage());
+            failed.incrementAndGet();
+            return null;
+        }
+    }
+
+    //The type probed from the file, or else guessed from its name, if it is one of the types served inline
+    //Any other type, SVG included, is recorded as a download, like an upload of it is served
+    private String mimeType(final Path file) throws IOException {
+        final String probed = Files.probeContentType(file);
+        final String guessed = probed == null ? URLConnection.guessContentTypeFromName(file.getFileName().toString())
+                                              : probed;
+        if (guessed == null) {
+            return DEFAULT_MIME_TYPE;
+        }
+        final String inlineType = ImageMimeTypes.inlineType(guessed);
+        return inlineType == null ? DOWNLOAD_MIME_TYPE : inlineType;
+    }
+
+    //Runs the task on the pool, so the parallel streams in it use the threads of the pool
+    private <T> T call(final ForkJoinPool pool, final Callable<T> task) throws InterruptedException {
+        try {
+            return pool.submit(task).get();
+        } catch (final ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException
+                  ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void run(final ForkJoinPool pool, final Runnable task) throws InterruptedException {
+        call(pool, () -> {
+            task.run();
+            return null;
+        });
+    }
+}
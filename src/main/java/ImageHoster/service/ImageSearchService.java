@@ -0,0 +1,230 @@
+package ImageHoster.service;
+
+import ImageHoster.config.GalleryProperties;
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageSearchDocument;
+import ImageHoster.model.ImageTile;
+import ImageHoster.model.SearchPage;
+import ImageHoster.model.Tag;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.search.InvertedIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Full-text search over the titles, descriptions and tag names of the images. The inverted index is held in memory,
+ * built from the database when the application starts and kept up to date as images are written. Changes reach the
+ * index once their transaction has committed, so it never finds an image that was rolled back.
+ * <p>
+ * Only the writes made on this node reach its index, so it is also rebuilt from the database at an interval, which
+ * brings in the images written or deleted on other nodes.
+ */
+@Slf4j
+@Service
+public class ImageSearchService {
+    //A term found in the title says more about an image than one found in its tags or description
+    private static final int TITLE_WEIGHT = 3;
+    private static final int TAG_WEIGHT = 2;
+    private static final int DESCRIPTION_WEIGHT = 1;
+    private static final int REBUILD_BATCH_SIZE = 1000;
+    private static final int MAX_PAGE = 1000;
+
+    private final ImageRepository imageRepository;
+    private final GalleryProperties galleryProperties;
+    private final TransactionTemplate readOnlyTransaction;
+    private volatile InvertedIndex index = new InvertedIndex();
+    //Index being rebuilt and ids of the images written since the rebuild started, both null when no rebuild is
+    // running. Writes reach both indexes, and the rebuild skips the images written since it may have read them
+    // before the write. Guarded by the lock
+    private InvertedIndex rebuilding;
+    private Set<Integer> changedDuringRebuild;
+    private final Object rebuildLock = new Object();
+
+    public ImageSearchService(final ImageRepository imageRepository, final GalleryProperties galleryProperties,
+                              final PlatformTransactionManager transactionManager) {
+        this.imageRepository = imageRepository;
+        this.galleryProperties = galleryProperties;
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Build a new index of every image in the database and replace the current one with it. Each batch of images is
+     * read in a short read-only transaction of its own, so no connection is held for the whole rebuild. Images written
+     * or deleted while it runs are skipped, the new index already has what their write left, so a deleted image is
+     * never put back.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${imagehoster.gallery.search-rebuild-interval:PT15M}",
+               fixedDelayString = "${imagehoster.gallery.search-rebuild-interval:PT15M}")
+    public void rebuildIndex() {
+        final long start = System.nanoTime();
+        final InvertedIndex rebuilt = new InvertedIndex();
+        synchronized (rebuildLock) {
+            rebuilding = rebuilt;
+            changedDuringRebuild = new HashSet<>();
+        }
+        try {
+            Integer afterId = 0;
+            List<ImageSearchDocument> documents;
+            do {
+                final Integer batchAfterId = afterId;
+                documents = readOnlyTransaction.execute(
+                        status -> imageRepository.getSearchDocuments(batchAfterId, REBUILD_BATCH_SIZE));
+                final Map<Integer, Map<String, Integer>> batch = new HashMap<>();
+                for (final ImageSearchDocument document : documents) {
+                    batch.put(document.getId(),
+                              termWeights(document.getTitle(), document.getDescription(), document.getTagNames()));
+                    afterId = document.getId();
+                }
+                synchronized (rebuildLock) {
+                    for (final Map.Entry<Integer, Map<String, Integer>> document : batch.entrySet()) {
+                        if (!changedDuringRebuild.contains(document.getKey())) {
+                            rebuilt.put(document.getKey(), document.getValue());
+                        }
+                    }
+                }
+            } while (documents.size() == REBUILD_BATCH_SIZE);
+            synchronized (rebuildLock) {
+                index = rebuilt;
+            }
+        } finally {
+            synchronized (rebuildLock) {
+                rebuilding = null;
+                changedDuringRebuild = null;
+            }
+        }
+        log.info("Indexed {} images for search in {} ms", rebuilt.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Search the images containing every word of the query, best match first.
+     *
+     * @param query - String
+     * @param page  - int, from 1
+     *
+     * @return SearchPage<ImageTile>
+     */
+    @Transactional(readOnly = true)
+    public SearchPage<ImageTile> search(final String query, final int page) {
+        final int pageSize = galleryProperties.getPageSize();
+        final int pageNumber = Math.max(1, Math.min(page, MAX_PAGE));
+        final List<String> terms = terms(query);
+        if (terms.isEmpty()) {
+            return new SearchPage<>(Collections.emptyList(), pageNumber, 0, true);
+        }
+        final InvertedIndex.Hits hits = index.search(terms, (pageNumber - 1) * pageSize, pageSize);
+
+        //The tiles come back in no particular order, they are put back in the order of the ranking
+        final Map<Integer, ImageTile> tiles = new HashMap<>();
+        for (final ImageTile tile : imageRepository.getImageTiles(hits.getDocumentIds())) {
+            tiles.put(tile.getId(), tile);
+        }
+        final List<ImageTile> items = new ArrayList<>();
+        for (final Integer imageId : hits.getDocumentIds()) {
+            final ImageTile tile = tiles.get(imageId);
+            if (tile != null) {
+                items.add(tile);
+            }
+        }
+        return new SearchPage<>(items, pageNumber, hits.getTotal(),
+                                pageNumber * pageSize >= hits.getTotal() || pageNumber == MAX_PAGE);
+    }
+
+    /**
+     * Index an image once the transaction writing it commits.
+     *
+     * @param image - Image, with its tags
+     */
+    public void index(final Image image) {
+        final List<String> tagNames = new ArrayList<>();
+        for (final Tag tag : image.getTags()) {
+            tagNames.add(tag.getName());
+        }
+        final Integer imageId = image.getId();
+        final Map<String, Integer> termWeights = termWeights(image.getTitle(), image.getDescription(), tagNames);
+        afterCommit(() -> change(imageId, target -> target.put(imageId, termWeights)));
+    }
+
+    /**
+     * Remove an image from the index once the transaction deleting it commits.
+     *
+     * @param imageId - Integer
+     */
+    public void remove(final Integer imageId) {
+        afterCommit(() -> change(imageId, target -> target.remove(imageId)));
+    }
+
+    private Map<String, Integer> termWeights(final String title, final String description,
+                                             final List<String> tagNames) {
+        final Map<String, Integer> termWeights = new HashMap<>();
+        addTerms(termWeights, title, TITLE_WEIGHT);
+        addTerms(termWeights, description, DESCRIPTION_WEIGHT);
+        for (final String tagName : tagNames) {
+            addTerms(termWeights, tagName, TAG_WEIGHT);
+        }
+        return termWeights;
+    }
+
+    private void addTerms(final Map<String, Integer> termWeights, final String text, final int weight) {
+        for (final String term : terms(text)) {
+            termWeights.merge(term, weight, Integer::sum);
+        }
+    }
+
+    //Words of the text in lower case, anything that is not a letter or a digit separates words
+    private List<String> terms(final String text) {
+        final List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        for (final String term : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    //Applies a committed write to the index and to the one being rebuilt, and keeps the rebuild from overwriting it
+    private void change(final Integer imageId, final Consumer<InvertedIndex> change) {
+        synchronized (rebuildLock) {
+            change.accept(index);
+            if (rebuilding != null) {
+                changedDuringRebuild.add(imageId);
+                change.accept(rebuilding);
+            }
+        }
+    }
+
+    private void afterCommit(final Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
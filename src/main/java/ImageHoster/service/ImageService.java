@@ -1,45 +1,307 @@
 package ImageHoster.service;
 
+import ImageHoster.config.GalleryProperties;
+import ImageHoster.config.StorageProperties;
 import ImageHoster.model.Image;
+import ImageHoster.model.ImageCursor;
+import ImageHoster.model.ImageTile;
+import ImageHoster.model.KeysetPage;
+import ImageHoster.model.Tag;
+import ImageHoster.repository.DataMigrationRepository;
+import ImageHoster.repository.ImageBlobRepository;
 import ImageHoster.repository.ImageRepository;
+import ImageHoster.repository.ImportCheckpointRepository;
+import ImageHoster.storage.ImageStorage;
+import ImageHoster.storage.ImageTooLargeException;
+import ImageHoster.storage.StoredImage;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+@Slf4j
 @RequiredArgsConstructor
 @Service
 public class ImageService {
+    private static final String DEFAULT_MIME_TYPE = "image/jpeg";
+    private static final String MOVE_LEGACY_IMAGE_FILES_MIGRATION = "move-legacy-image-files";
+    private static final int LEGACY_IMAGE_FILES_BATCH_SIZE = 100;
+
     private final ImageRepository imageRepository;
+    private final ImageBlobRepository imageBlobRepository;
+    private final DataMigrationRepository dataMigrationRepository;
+    private final ImportCheckpointRepository importCheckpointRepository;
+    private final ImageSearchService imageSearchService;
+    private final ImageStorage imageStorage;
+    private final StorageProperties storageProperties;
+    private final GalleryProperties galleryProperties;
+
+    //The method calls the getImageTilesOlderThan() or getImageTilesNewerThan() method in the Repository to fetch one
+    // page of the gallery
+    //One more image than the page size is fetched to know whether there is a page beyond it
+    //Going back towards the newest images ends on the first page, so that page is always full
+    @Transactional(readOnly = true)
+    public KeysetPage<ImageTile> getImagesPage(final String newerThan, final String olderThan) {
+        final int pageSize = galleryProperties.getPageSize();
+        final ImageCursor newerThanCursor = ImageCursor.parse(newerThan);
+        if (newerThanCursor != null) {
+            final List<ImageTile> images = imageRepository.getImageTilesNewerThan(newerThanCursor, pageSize + 1);
+            if (images.size() > pageSize) {
+                final List<ImageTile> page = new ArrayList<>(images.subList(0, pageSize));
+                Collections.reverse(page);
+                return new KeysetPage<>(page, cursorOf(page.get(0)), cursorOf(page.get(pageSize - 1)));
+            }
+            return getImagesPage(null, null);
+        }
+
+        final ImageCursor olderThanCursor = ImageCursor.parse(olderThan);
+        final List<ImageTile> images = imageRepository.getImageTilesOlderThan(olderThanCursor, pageSize + 1);
+        final List<ImageTile> page = images.subList(0, Math.min(pageSize, images.size()));
+        return new KeysetPage<>(page,
+                                olderThanCursor != null && !page.isEmpty() ? cursorOf(page.get(0)) : null,
+                                images.size() > pageSize ? cursorOf(page.get(pageSize - 1)) : null);
+    }
 
-    //Call the getAllImages() method in the Repository and obtain a List of all the images in the database
-    public List<Image> getAllImages() {
-        return imageRepository.getAllImages();
+    //The method calls the getImageIdsForTagOlderThan() or getImageIdsForTagNewerThan() method in the Repository to
+    // fetch the ids of one page of the images of the tag, newest first, and then the tiles of those images
+    //The cursors are image ids, since the images of a tag are listed in the order of the join table index
+    @Transactional(readOnly = true)
+    public KeysetPage<ImageTile> getImagesPageForTag(final Tag tag, final String newerThan, final String olderThan) {
+        final int pageSize = galleryProperties.getPageSize();
+        final Integer newerThanId = parseImageId(newerThan);
+        if (newerThanId != null) {
+            final List<Integer> imageIds =
+                    imageRepository.getImageIdsForTagNewerThan(tag.getId(), newerThanId, pageSize + 1);
+            if (imageIds.size() > pageSize) {
+                final List<Integer> page = new ArrayList<>(imageIds.subList(0, pageSize));
+                Collections.reverse(page);
+                return new KeysetPage<>(getImageTiles(page), page.get(0).toString(),
+                                        page.get(pageSize - 1).toString());
+            }
+            return getImagesPageForTag(tag, null, null);
+        }
+
+        final Integer olderThanId = parseImageId(olderThan);
+        final List<Integer> imageIds =
+                imageRepository.getImageIdsForTagOlderThan(tag.getId(), olderThanId, pageSize + 1);
+        final List<Integer> page = imageIds.subList(0, Math.min(pageSize, imageIds.size()));
+        return new KeysetPage<>(getImageTiles(page),
+                                olderThanId != null && !page.isEmpty() ? page.get(0).toString() : null,
+                                imageIds.size() > pageSize ? page.get(pageSize - 1).toString() : null);
     }
 
     //The method calls the createImage() method in the Repository and passes the image to be persisted in the database
+    @Transactional
     public void uploadImage(final Image image) {
         imageRepository.uploadImage(image);
+        imageSearchService.index(image);
+    }
+
+    //The method calls the uploadImages() method in the Repository to persist a batch of imported images, and records
+    // how far the import got in the same transaction
+    //The files of a batch are stored well before it commits, so one may have been reclaimed in the meantime. Once the
+    // images hold their references no reclaim can take the files, so a file found missing then is stored again from
+    // its source
+    @Transactional
+    public void importImages(final List<Image> images, final Map<String, ? extends InputStreamSource> sources,
+                             final String manifest, final int position) {
+        imageRepository.uploadImages(images);
+        for (final Image image : images) {
+            if (!imageStorage.exists(image.getStorageKey())) {
+                log.info("Image file {} was reclaimed before its import committed, storing it again",
+                         image.getStorageKey());
+                try {
+                    store(sources.get(image.getStorageKey()), storageProperties.getMaxFileSize().toBytes());
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        importCheckpointRepository.savePosition(manifest, position);
+        images.forEach(imageSearchService::index);
+    }
+
+    //The method calls the getPosition() method in the Repository to find how many entries of the manifest were
+    // already imported
+    @Transactional(readOnly = true)
+    public int getImportPosition(final String manifest) {
+        return importCheckpointRepository.getPosition(manifest);
     }
 
     //The method calls the getImageByTitle() method in the Repository and passes the title of the image to be fetched
+    @Transactional(readOnly = true)
     public Image getImageByTitle(final String title) {
         return imageRepository.getImageByTitle(title);
     }
 
     //The method calls the getImage() method in the Repository and passes the id of the image to be fetched
+    //Only the picture of the image is loaded
+    @Transactional(readOnly = true)
     public Image getImage(final Integer imageId) {
-        return imageRepository.getImage(imageId);
+        return imageRepository.getImage(imageId, Image.LISTING_GRAPH);
+    }
+
+    //The method calls the getImage() method in the Repository to fetch the image with its tags for the image page
+    @Transactional(readOnly = true)
+    public Image getImageDetail(final Integer imageId) {
+        return imageRepository.getImage(imageId, Image.DETAIL_GRAPH);
+    }
+
+    //The method calls the getImage() method in the Repository to fetch the image with its owner and tags for editing
+    // or deleting it
+    @Transactional(readOnly = true)
+    public Image getImageForEdit(final Integer imageId) {
+        return imageRepository.getImage(imageId, Image.EDIT_GRAPH);
     }
 
     //The method calls the updateImage() method in the Repository and passes the Image to be updated in the database
+    @Transactional
     public void updateImage(final Image updatedImage) {
         imageRepository.updateImage(updatedImage);
+        imageSearchService.index(updatedImage);
     }
 
     //The method calls the deleteImage() method in the Repository and passes the Image id of the image to be deleted
     // in the database
+    @Transactional
     public void deleteImage(final Integer imageId) {
         imageRepository.deleteImage(imageId);
+        imageSearchService.remove(imageId);
+    }
+
+    //The method calls the updateThumbnails() method in the Repository to record the thumbnails generated from the
+    // given image file
+    //Thumbnails that could not be recorded because the image changed meanwhile stay unreferenced and are reclaimed
+    @Transactional
+    public void saveThumbnails(final Integer imageId, final String sourceStorageKey,
+                               final Map<String, String> thumbnails) {
+        if (!imageRepository.updateThumbnails(imageId, sourceStorageKey, thumbnails)) {
+            log.info("Image {} changed while its thumbnails were created, they are discarded", imageId);
+        }
+    }
+
+    /**
+     * Stream the uploaded file to the image storage and point the image at it. Files over the configured limit are
+     * rejected from their declared size without being read.
+     *
+     * @param image - Image
+     * @param file  - MultipartFile
+     *
+     * @throws ImageTooLargeException if the file is bigger than the upload limit
+     */
+    public void storeImageFile(final Image image, final MultipartFile file) throws IOException {
+        final long maxFileSize = storageProperties.getMaxFileSize().toBytes();
+        if (file.getSize() > maxFileSize) {
+            throw new ImageTooLargeException(maxFileSize);
+        }
+        final StoredImage stored = storeFile(file, maxFileSize);
+        image.setStorageKey(stored.getKey());
+        image.setFileSize(stored.getSize());
+        image.setMimeType(file.getContentType() == null ? DEFAULT_MIME_TYPE : file.getContentType());
+    }
+
+    /**
+     * Move the images uploaded before the image storage existed out of the legacy Base64 column, into the image
+     * storage, and drop the column. This runs once for the database, on the first node started, which the other nodes
+     * wait for, and later starts skip it. A schema created since then never had the column and has nothing to move.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void moveLegacyImageFiles() throws IOException {
+        if (!dataMigrationRepository.begin(MOVE_LEGACY_IMAGE_FILES_MIGRATION)
+            || !imageRepository.hasLegacyImageFiles()) {
+            return;
+        }
+        int moved = 0;
+        int lastId = 0;
+        List<Object[]> legacyImageFiles;
+        do {
+            legacyImageFiles = imageRepository.getLegacyImageFiles(lastId, LEGACY_IMAGE_FILES_BATCH_SIZE);
+            for (final Object[] legacyImageFile : legacyImageFiles) {
+                lastId = ((Number) legacyImageFile[0]).intValue();
+                final byte[] bytes = Base64.getDecoder().decode((String) legacyImageFile[1]);
+                final StoredImage stored = storeFile(new ByteArrayResource(bytes), bytes.length);
+                imageRepository.moveLegacyImageFile(lastId, stored.getKey(), stored.getSize());
+                moved++;
+            }
+        } while (legacyImageFiles.size() == LEGACY_IMAGE_FILES_BATCH_SIZE);
+        imageRepository.dropLegacyImageFiles();
+        log.info("Moved {} images from the legacy Base64 column to the image storage", moved);
+    }
+
+    /**
+     * Write content to the image storage and register the file with no references. Identical content is stored once,
+     * and a file that no image or thumbnail ends up using is reclaimed after the grace period.
+     * <p>
+     * A reclaim of the same bytes running while they are stored may delete the file before the registration revives
+     * its row. The registration waits for that reclaim to commit, so the content is read a second time and stored
+     * again when the file is gone after it.
+     *
+     * @param content - InputStreamSource, opened once more if the file has to be stored again
+     * @param maxSize - long
+     *
+     * @return StoredImage
+     */
+    public StoredImage storeFile(final InputStreamSource content, final long maxSize) throws IOException {
+        StoredImage stored = store(content, maxSize);
+        imageBlobRepository.registerImageFile(stored.getKey(), stored.getSize());
+        if (!imageStorage.exists(stored.getKey())) {
+            log.info("Image file {} was reclaimed while it was stored, storing it again", stored.getKey());
+            stored = store(content, maxSize);
+        }
+        return stored;
+    }
+
+    private StoredImage store(final InputStreamSource content, final long maxSize) throws IOException {
+        try (InputStream input = content.getInputStream()) {
+            return imageStorage.store(input, maxSize);
+        }
+    }
+
+    //Tiles of the images in the order of the ids
+    private List<ImageTile> getImageTiles(final List<Integer> imageIds) {
+        final Map<Integer, ImageTile> tiles = new HashMap<>();
+        for (final ImageTile tile : imageRepository.getImageTiles(imageIds)) {
+            tiles.put(tile.getId(), tile);
+        }
+        final List<ImageTile> ordered = new ArrayList<>();
+        for (final Integer imageId : imageIds) {
+            final ImageTile tile = tiles.get(imageId);
+            if (tile != null) {
+                ordered.add(tile);
+            }
+        }
+        return ordered;
+    }
+
+    //Returns null if the cursor is missing or malformed, which starts from the newest image
+    private Integer parseImageId(final String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(cursor);
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String cursorOf(final ImageTile tile) {
+        return new ImageCursor(tile.getDate(), tile.getId()).toString();
     }
 }
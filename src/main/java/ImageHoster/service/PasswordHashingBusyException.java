@@ -0,0 +1,12 @@
+package ImageHoster.service;
+
+/**
+ * Thrown when every thread hashing passwords is busy and the queue of logins and registrations waiting for one is
+ * full. Nothing was checked or written when it is thrown, so the request can simply be tried again.
+ */
+public class PasswordHashingBusyException extends RuntimeException {
+
+    public PasswordHashingBusyException() {
+        super("Too many logins and registrations are waiting for a password to be hashed");
+    }
+}
@@ -0,0 +1,138 @@
+package ImageHoster.service;
+
+import ImageHoster.config.PasswordProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * Hashes and checks passwords with salted BCrypt. Hashing is slow on purpose, so it runs on a small bounded executor
+ * rather than on the request threads: a burst of logins waits for a hashing thread or is turned away when the queue is
+ * full, and the other requests keep the CPU. The request thread still waits for the hash, so the wait is bounded by
+ * the configured maximum, after which the request is turned away too and its hashing cancelled. A burst of logins thus
+ * holds request threads for at most that long each. The executor reports its active threads and queue depth as the
+ * 'executor' metrics named 'passwordHashing'.
+ * <p>
+ * Passwords stored before they were hashed are still accepted and are reported as needing a new hash, like hashes of
+ * a lower cost than the configured one.
+ */
+@Service
+public class PasswordService {
+    private static final Pattern BCRYPT_HASH = Pattern.compile("\\A\\$2(a|y|b)?\\$\\d\\d\\$[./0-9A-Za-z]{53}");
+
+    private final BCryptPasswordEncoder passwordEncoder;
+    private final ThreadPoolTaskExecutor passwordHashingExecutor;
+    private final long maxWaitMillis;
+    private final Counter rejected;
+    //Checked against when there is no user with the name given at login, so a missing user takes as long to reject
+    // as a wrong password
+    private final String unknownUserHash;
+
+    public PasswordService(final BCryptPasswordEncoder passwordEncoder,
+                           final ThreadPoolTaskExecutor passwordHashingExecutor,
+                           final PasswordProperties passwordProperties,
+                           final MeterRegistry meterRegistry) {
+        this.passwordEncoder = passwordEncoder;
+        this.passwordHashingExecutor = passwordHashingExecutor;
+        maxWaitMillis = passwordProperties.getMaxWait().toMillis();
+        new ExecutorServiceMetrics(passwordHashingExecutor.getThreadPoolExecutor(), "passwordHashing", Tags.empty())
+                .bindTo(meterRegistry);
+        rejected = meterRegistry.counter("passwords.hashing.rejected");
+        unknownUserHash = passwordEncoder.encode("unknown user");
+    }
+
+    /**
+     * Hash a password with a new salt.
+     *
+     * @param rawPassword - String
+     *
+     * @return String, the hash to store
+     *
+     * @throws PasswordHashingBusyException if too many passwords are waiting to be hashed, or it was not hashed in time
+     */
+    public String hash(final String rawPassword) {
+        return call(() -> passwordEncoder.encode(rawPassword));
+    }
+
+    /**
+     * Check a password against the stored one, which is either a hash or a password stored before passwords were
+     * hashed.
+     *
+     * @param rawPassword    - String
+     * @param storedPassword - String, null when there is no such user
+     *
+     * @return boolean
+     *
+     * @throws PasswordHashingBusyException if too many passwords are waiting to be hashed, or it was not checked in time
+     */
+    public boolean matches(final String rawPassword, final String storedPassword) {
+        if (rawPassword == null) {
+            return false;
+        }
+        if (storedPassword == null) {
+            call(() -> passwordEncoder.matches(rawPassword, unknownUserHash));
+            return false;
+        }
+        if (!isHash(storedPassword)) {
+            return MessageDigest.isEqual(rawPassword.getBytes(StandardCharsets.UTF_8),
+                                         storedPassword.getBytes(StandardCharsets.UTF_8));
+        }
+        return call(() -> passwordEncoder.matches(rawPassword, storedPassword));
+    }
+
+    /**
+     * Whether the stored password should be replaced by a new hash once the user has proven to know it.
+     *
+     * @param storedPassword - String
+     *
+     * @return boolean, true for a password that is not hashed or is hashed with a lower cost than configured
+     */
+    public boolean needsRehash(final String storedPassword) {
+        return !isHash(storedPassword) || passwordEncoder.upgradeEncoding(storedPassword);
+    }
+
+    private boolean isHash(final String storedPassword) {
+        return BCRYPT_HASH.matcher(storedPassword).matches();
+    }
+
+    //Runs the hashing on the executor and waits for it up to the maximum wait, the waiting request thread uses no CPU
+    // meanwhile
+    private <T> T call(final Callable<T> task) {
+        final Future<T> result;
+        try {
+            result = passwordHashingExecutor.submit(task);
+        } catch (final TaskRejectedException e) {
+            rejected.increment();
+            throw new PasswordHashingBusyException();
+        }
+        try {
+            return result.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            //A queued hash is dropped before it starts, a running one has its result ignored
+            result.cancel(true);
+            rejected.increment();
+            throw new PasswordHashingBusyException();
+        } catch (final InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing a password", e);
+        } catch (final ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException
+                  ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        }
+    }
+}
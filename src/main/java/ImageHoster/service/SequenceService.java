@@ -0,0 +1,22 @@
+package ImageHoster.service;
+
+import ImageHoster.repository.SequenceRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+@RequiredArgsConstructor
+@Service
+public class SequenceService {
+    private final SequenceRepository sequenceRepository;
+
+    //The method calls the alignSequences() method in the Repository once the application has started, so the ids of
+    // rows created before the entities had sequences of their own are never handed out again
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void alignSequences() {
+        sequenceRepository.alignSequences();
+    }
+}
@@ -1,20 +1,171 @@
 package ImageHoster.service;
 
+import ImageHoster.cache.LruCache;
+import ImageHoster.config.TagProperties;
 import ImageHoster.model.Tag;
+import ImageHoster.repository.DataMigrationRepository;
 import ImageHoster.repository.TagRepository;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-@RequiredArgsConstructor
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks tags up by name through a bounded in-memory cache, since the tags in use are few and are never renamed. Tags
+ * are cached once the transaction that read or created them has committed, so a rolled back insert is never cached.
+ */
+@Slf4j
 @Service
 public class TagService {
+    private static final String NORMALIZE_TAGS_MIGRATION = "normalize-and-count-tags";
+
     private final TagRepository tagRepository;
+    private final DataMigrationRepository dataMigrationRepository;
+    private final TagProperties tagProperties;
+    private final LruCache<String, Tag> tagsByNormalizedName;
 
+    public TagService(final TagRepository tagRepository, final DataMigrationRepository dataMigrationRepository,
+                      final TagProperties tagProperties, final MeterRegistry meterRegistry) {
+        this.tagRepository = tagRepository;
+        this.dataMigrationRepository = dataMigrationRepository;
+        this.tagProperties = tagProperties;
+        tagsByNormalizedName = new LruCache<>(tagProperties.getCacheSize());
+        tagsByNormalizedName.bindTo(meterRegistry, "tags");
+    }
+
+    @Transactional(readOnly = true)
     public Tag getTagByName(final String title) {
-        return tagRepository.findTag(title);
+        final Tag cached = tagsByNormalizedName.get(Tag.normalize(title));
+        if (cached != null) {
+            return cached;
+        }
+        final Tag tag = tagRepository.findTag(title);
+        if (tag != null) {
+            cacheAfterCommit(tag);
+        }
+        return tag;
+    }
+
+    /**
+     * Resolve tag names to tags, creating the tags that do not exist yet. Names are matched ignoring case and
+     * surrounding spaces. Cached tags need no query, the other existing tags are read with one query and the missing
+     * ones are inserted with one statement.
+     *
+     * @param tagNames - Collection<String>
+     *
+     * @return List<Tag>, one per distinct name in the order the names were given
+     */
+    @Transactional
+    public List<Tag> getOrCreateTags(final Collection<String> tagNames) {
+        final Map<String, String> namesByNormalizedName = new LinkedHashMap<>();
+        for (final String tagName : tagNames) {
+            namesByNormalizedName.putIfAbsent(Tag.normalize(tagName), tagName.trim());
+        }
+
+        final Map<String, Tag> tags = new HashMap<>();
+        final List<String> uncached = new ArrayList<>();
+        for (final String normalizedName : namesByNormalizedName.keySet()) {
+            final Tag cached = tagsByNormalizedName.get(normalizedName);
+            if (cached != null) {
+                tags.put(normalizedName, cached);
+            } else {
+                uncached.add(normalizedName);
+            }
+        }
+
+        if (!uncached.isEmpty()) {
+            final List<Tag> found = new ArrayList<>(tagRepository.findTags(uncached));
+            for (final Tag tag : found) {
+                tags.put(tag.getNormalizedName(), tag);
+            }
+
+            final Map<String, String> missing = new LinkedHashMap<>(namesByNormalizedName);
+            missing.keySet().removeAll(tags.keySet());
+            if (!missing.isEmpty()) {
+                tagRepository.insertMissingTags(missing);
+                for (final Tag tag : tagRepository.findTags(missing.keySet())) {
+                    tags.put(tag.getNormalizedName(), tag);
+                    found.add(tag);
+                }
+            }
+            cacheAfterCommit(found);
+        }
+
+        final List<Tag> resolved = new ArrayList<>();
+        for (final String normalizedName : namesByNormalizedName.keySet()) {
+            resolved.add(tags.get(normalizedName));
+        }
+        return resolved;
+    }
+
+    /**
+     * The tags used by the most images, read from the number of images counted on each tag.
+     *
+     * @return List<Tag>, most used first
+     */
+    @Transactional(readOnly = true)
+    public List<Tag> getTopTags() {
+        return tagRepository.findTopTags(tagProperties.getTopTagsSize());
+    }
+
+    //Tags created before names were normalized are given a normalized name once the application has started
+    //Merging duplicate tags deletes some of them, so nothing cached before is trusted afterwards
+    //The tags are then given the number of their images if they were created before tags counted them
+    //New tags are normalized and counted as they are written, so this runs once for the database, on the first node
+    // started, and later starts skip it
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void normalizeTagNames() {
+        if (!dataMigrationRepository.begin(NORMALIZE_TAGS_MIGRATION)) {
+            return;
+        }
+        tagRepository.normalizeTagNames();
+        final int counted = tagRepository.countUncountedImages();
+        if (counted > 0) {
+            log.info("Counted the images of {} tags", counted);
+        }
+        invalidateAfterCommit();
+    }
+
+    private void cacheAfterCommit(final Tag tag) {
+        final List<Tag> tags = new ArrayList<>();
+        tags.add(tag);
+        cacheAfterCommit(tags);
+    }
+
+    private void cacheAfterCommit(final Collection<Tag> tags) {
+        afterCommit(() -> {
+            for (final Tag tag : tags) {
+                tagsByNormalizedName.put(tag.getNormalizedName(), tag);
+            }
+        });
+    }
+
+    private void invalidateAfterCommit() {
+        afterCommit(tagsByNormalizedName::invalidateAll);
     }
 
-    public Tag createTag(final Tag tag) {
-        return tagRepository.createTag(tag);
+    private void afterCommit(final Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 }
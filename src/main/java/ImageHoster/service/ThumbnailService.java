@@ -0,0 +1,156 @@
+package ImageHoster.service;
+
+import ImageHoster.config.StorageProperties;
+import ImageHoster.config.ThumbnailProperties;
+import ImageHoster.model.Image;
+import ImageHoster.storage.ImageStorage;
+import ImageHoster.storage.StoredImage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Generates the fixed-size renditions of uploaded images on a bounded background executor, so uploads return as soon
+ * as the original is stored.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Service
+public class ThumbnailService {
+    private final ImageService imageService;
+    private final ImageStorage imageStorage;
+    private final ThumbnailProperties thumbnailProperties;
+    private final StorageProperties storageProperties;
+    private final ThreadPoolTaskExecutor thumbnailExecutor;
+
+    /**
+     * Queue the generation of thumbnails for the current file of a persisted image.
+     *
+     * @param image - Image
+     */
+    public void generateThumbnails(final Image image) {
+        final Integer imageId = image.getId();
+        final String storageKey = image.getStorageKey();
+        if (imageId == null || storageKey == null) {
+            return;
+        }
+        try {
+            thumbnailExecutor.execute(() -> createThumbnails(imageId, storageKey));
+        } catch (final TaskRejectedException e) {
+            log.warn("Thumbnail queue is full, image {} is shown at full size", imageId);
+        }
+    }
+
+    /**
+     * Generate the thumbnails for the current file of a persisted image on the calling thread, for callers that run
+     * on threads of their own.
+     *
+     * @param image - Image
+     */
+    public void createThumbnails(final Image image) {
+        if (image.getId() != null && image.getStorageKey() != null) {
+            createThumbnails(image.getId(), image.getStorageKey());
+        }
+    }
+
+    private void createThumbnails(final Integer imageId, final String storageKey) {
+        try {
+            final BufferedImage original = read(storageKey);
+            if (original == null) {
+                log.warn("Image {} is not in a format that can be resized", imageId);
+                return;
+            }
+
+            //A thumbnail is a few hundred pixels wide, so it is encoded in memory, where the storage can read it again
+            // if it has to store it a second time, and is held to the upload limit like any other stored file
+            final long maxFileSize = storageProperties.getMaxFileSize().toBytes();
+            final Map<String, String> thumbnails = new HashMap<>();
+            for (final Map.Entry<String, Integer> size : thumbnailProperties.getSizes().entrySet()) {
+                final BufferedImage resized = resize(original, size.getValue());
+                final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+                ImageIO.write(resized, "jpg", encoded);
+                final StoredImage stored =
+                        imageService.storeFile(new ByteArrayResource(encoded.toByteArray()), maxFileSize);
+                thumbnails.put(size.getKey(), stored.getKey());
+            }
+            imageService.saveThumbnails(imageId, storageKey, thumbnails);
+        } catch (final IOException | RuntimeException e) {
+            log.error("Unable to create thumbnails for image {} -> {}", imageId, e.getLocalizedMessage());
+        }
+    }
+
+    //Decodes the original with subsampling, so a large upload is never held on the heap at full resolution when only
+    // a few hundred pixels of it are needed
+    private BufferedImage read(final String storageKey) throws IOException {
+        final int largestEdge = thumbnailProperties.getSizes().values().stream().max(Integer::compare).orElse(0);
+        try (InputStream content = imageStorage.open(storageKey);
+             ImageInputStream input = ImageIO.createImageInputStream(content)) {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (largestEdge == 0 || !readers.hasNext()) {
+                return null;
+            }
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                final int longestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                final int subsampling = Math.max(1, longestSide / (largestEdge * 2));
+                final ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    //Fits the image inside a square of the given edge, halving it in steps while it is more than twice too big so
+    // the bilinear filter does not skip pixels
+    private BufferedImage resize(final BufferedImage original, final int edge) {
+        final double scale = Math.min(1.0, (double) edge / Math.max(original.getWidth(), original.getHeight()));
+        final int targetWidth = Math.max(1, (int) Math.round(original.getWidth() * scale));
+        final int targetHeight = Math.max(1, (int) Math.round(original.getHeight() * scale));
+
+        BufferedImage current = original;
+        int width = original.getWidth();
+        int height = original.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            current = draw(current, width, height);
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private BufferedImage draw(final BufferedImage source, final int width, final int height) {
+        final BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+}
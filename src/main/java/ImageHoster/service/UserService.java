@@ -3,16 +3,44 @@ package ImageHoster.service;
 import ImageHoster.model.User;
 import ImageHoster.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.Collection;
+import java.util.List;
+
+@Slf4j
 @RequiredArgsConstructor
 @Service
 public class UserService {
     private final UserRepository userRepository;
+    private final PasswordService passwordService;
+    private final UsernameAvailabilityService usernameAvailabilityService;
+    private final TransactionTemplate transactionTemplate;
 
     //Call the registerUser() method in the UserRepository class to persist the user record in the database
-    public void registerUser(final User newUser) {
-        userRepository.registerUser(newUser);
+    //The password is hashed before the transaction starts, so no database connection is held while it is hashed
+    //Returns false if the username is already taken, the unique index of the username settles concurrent
+    // registrations
+    //The username filter answers for most free names, and is given the name once the user is registered
+    public boolean registerUser(final User newUser) {
+        if (!usernameAvailabilityService.isUsernameAvailable(newUser.getUsername())) {
+            return false;
+        }
+        newUser.setPassword(passwordService.hash(newUser.getPassword()));
+        try {
+            transactionTemplate.execute(status -> {
+                userRepository.registerUser(newUser);
+                return null;
+            });
+            usernameAvailabilityService.addUsername(newUser.getUsername());
+            return true;
+        } catch (final DataIntegrityViolationException e) {
+            return false;
+        }
     }
 
     //Since we did not have any user in the database, therefore the user with username 'upgrad' and password
@@ -20,16 +48,40 @@ public class UserService {
     //This method returned true if the username was 'upgrad' and password is 'password'
     //But now let us change the implementation of this method
     //This method receives the User type object
-    //Calls the checkUser() method in the Repository passing the username and password which checks the username and
-    // password in the database
-    //The Repository returns User type object if user with entered username and password exists in the database
+    //Calls the findUser() method in the Repository passing the username, and checks the entered password against the
+    // stored hash
+    //A password stored before passwords were hashed, or hashed with a lower cost, is hashed again once it is checked
+    //The login does not fail when the hashing pool is too busy to hash it again, it is hashed again on a later login
+    //The user is read and written in short transactions of their own, so no database connection is held while the
+    // password is hashed
+    //Returns User type object if user with entered username and password exists in the database
     //Else returns null
     public User login(final User user) {
-        final User existingUser = userRepository.checkUser(user.getUsername(), user.getPassword());
-        if (existingUser != null) {
-            return existingUser;
-        } else {
+        final User existingUser = transactionTemplate.execute(status -> userRepository.findUser(user.getUsername()));
+        if (!passwordService.matches(user.getPassword(), existingUser == null ? null : existingUser.getPassword())) {
             return null;
         }
+        if (passwordService.needsRehash(existingUser.getPassword())) {
+            final String checkedPassword = existingUser.getPassword();
+            final String newPassword;
+            try {
+                newPassword = passwordService.hash(user.getPassword());
+            } catch (final PasswordHashingBusyException e) {
+                log.debug("Password of {} not hashed again, the hashing pool is busy", existingUser.getUsername());
+                return existingUser;
+            }
+            transactionTemplate.execute(status -> {
+                userRepository.updatePassword(existingUser.getId(), checkedPassword, newPassword);
+                return null;
+            });
+            existingUser.setPassword(newPassword);
+        }
+        return existingUser;
+    }
+
+    //Call the findUsers() method in the UserRepository class to fetch the users with the given usernames
+    @Transactional(readOnly = true)
+    public List<User> getUsersByName(final Collection<String> usernames) {
+        return userRepository.findUsers(usernames);
     }
 }
@@ -0,0 +1,153 @@
+package ImageHoster.service;
+
+import ImageHoster.cache.BloomFilter;
+import ImageHoster.config.UsernameProperties;
+import ImageHoster.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Answers whether a username is free from a Bloom filter of the usernames in the database, so most checks made while
+ * a name is typed on the registration form never reach the database. Only a name the filter may hold is looked up.
+ * <p>
+ * The filter is built when the application starts and again every rebuild interval, and registrations on this node
+ * are added to it as they happen. A user registered on another node is only known after the next rebuild, so the
+ * answers are advice for the form and registration itself relies on the unique index of the username.
+ * <p>
+ * The size of the filter, the usernames in it and its expected false positive rate are published as the
+ * 'usernames.filter' gauges, and how each check was answered as the 'usernames.checks' counter.
+ */
+@Slf4j
+@Service
+public class UsernameAvailabilityService {
+    private static final int REBUILD_BATCH_SIZE = 10_000;
+
+    private final UserRepository userRepository;
+    private final UsernameProperties usernameProperties;
+    private final Counter answeredByFilter;
+    private final Counter takenInDatabase;
+    private final Counter falsePositives;
+    private final Counter unfiltered;
+    //Null until the filter is first built, every check reads the database meanwhile
+    private volatile BloomFilter filter;
+    //The filter being rebuilt, which is given the registrations made while the database is read
+    private volatile BloomFilter rebuilding;
+
+    public UsernameAvailabilityService(final UserRepository userRepository,
+                                       final UsernameProperties usernameProperties,
+                                       final MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.usernameProperties = usernameProperties;
+        answeredByFilter = checks(meterRegistry, "filter");
+        takenInDatabase = checks(meterRegistry, "taken");
+        falsePositives = checks(meterRegistry, "false_positive");
+        unfiltered = checks(meterRegistry, "unfiltered");
+        Gauge.builder("usernames.filter.size", this, service -> service.filterStat(BloomFilter::sizeInBytes))
+             .baseUnit("bytes")
+             .description("Memory taken by the username filter")
+             .register(meterRegistry);
+        Gauge.builder("usernames.filter.usernames", this, service -> service.filterStat(BloomFilter::approximateSize))
+             .description("Usernames added to the username filter")
+             .register(meterRegistry);
+        Gauge.builder("usernames.filter.false.positive.rate", this,
+                      service -> service.filterStat(BloomFilter::expectedFalsePositiveRate))
+             .description("Expected share of free usernames the username filter sends to the database")
+             .register(meterRegistry);
+    }
+
+    /**
+     * Build the filter from the usernames in the database and replace the current one with it. The filter is sized
+     * for the configured number of usernames, or for twice the usernames in the database when there are more.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${imagehoster.usernames.rebuild-interval:PT15M}",
+               fixedDelayString = "${imagehoster.usernames.rebuild-interval:PT15M}")
+    @Transactional(readOnly = true)
+    public void rebuildFilter() {
+        final long start = System.nanoTime();
+        final long users = userRepository.countUsers();
+        final BloomFilter rebuilt = new BloomFilter(Math.max(usernameProperties.getExpectedUsernames(), users * 2),
+                                                    usernameProperties.getFalsePositiveRate());
+        rebuilding = rebuilt;
+        Integer afterId = 0;
+        List<Object[]> usernames;
+        do {
+            usernames = userRepository.getUsernames(afterId, REBUILD_BATCH_SIZE);
+            for (final Object[] username : usernames) {
+                rebuilt.add((String) username[1]);
+                afterId = (Integer) username[0];
+            }
+        } while (usernames.size() == REBUILD_BATCH_SIZE);
+        filter = rebuilt;
+        rebuilding = null;
+        log.info("Built the username filter of {} usernames in {} ms, {} KB with {} hashes, expected false positive "
+                 + "rate {}", rebuilt.approximateSize(), (System.nanoTime() - start) / 1_000_000,
+                 rebuilt.sizeInBytes() / 1024, rebuilt.hashCount(),
+                 String.format("%.4f", rebuilt.expectedFalsePositiveRate()));
+    }
+
+    /**
+     * Whether no user has the username. The database is only read when the filter may hold the name.
+     *
+     * @param username - String
+     *
+     * @return boolean
+     */
+    @Transactional(readOnly = true)
+    public boolean isUsernameAvailable(final String username) {
+        final BloomFilter current = filter;
+        if (current != null && !current.mightContain(username)) {
+            answeredByFilter.increment();
+            return true;
+        }
+        final boolean taken = userRepository.isUsernameTaken(username);
+        if (current == null) {
+            unfiltered.increment();
+        } else if (taken) {
+            takenInDatabase.increment();
+        } else {
+            falsePositives.increment();
+        }
+        return !taken;
+    }
+
+    /**
+     * Add the username of a user whose registration has committed to the filter.
+     *
+     * @param username - String
+     */
+    public void addUsername(final String username) {
+        //The filter being rebuilt is read first. The user is committed already, so a rebuild that had not started yet
+        // reads it from the database, and one that has finished has already become the current filter
+        final BloomFilter next = rebuilding;
+        if (next != null) {
+            next.add(username);
+        }
+        final BloomFilter current = filter;
+        if (current != null) {
+            current.add(username);
+        }
+    }
+
+    private double filterStat(final ToDoubleFunction<BloomFilter> stat) {
+        final BloomFilter current = filter;
+        return current == null ? 0 : stat.applyAsDouble(current);
+    }
+
+    private static Counter checks(final MeterRegistry meterRegistry, final String answer) {
+        return Counter.builder("usernames.checks")
+                      .tag("answer", answer)
+                      .description("Username availability checks, by what answered them")
+                      .register(meterRegistry);
+    }
+}
@@ -0,0 +1,16 @@
+package ImageHoster.sql;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Registered with Hibernate, it sees every statement before it is prepared and counts it in the recordings open on
+ * the thread. The statement is sent unchanged.
+ */
+public class SqlStatementInspector implements StatementInspector {
+
+    @Override
+    public String inspect(final String sql) {
+        SqlStatements.statementPrepared(sql);
+        return sql;
+    }
+}
@@ -0,0 +1,43 @@
+package ImageHoster.sql;
+
+import org.hibernate.BaseSessionEventListener;
+
+/**
+ * Registered with Hibernate for every session, it times the statements and batches the session executes and adds the
+ * time to the recordings open on the thread. A session is used by one thread at a time, so it keeps its start time in
+ * a plain field.
+ */
+public class SqlStatementListener extends BaseSessionEventListener {
+    private long executionStart = -1;
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        startExecution();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        endExecution();
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        startExecution();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        endExecution();
+    }
+
+    private void startExecution() {
+        executionStart = SqlStatements.isRecording() ? System.nanoTime() : -1;
+    }
+
+    private void endExecution() {
+        if (executionStart >= 0) {
+            SqlStatements.statementExecuted(System.nanoTime() - executionStart);
+            executionStart = -1;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package ImageHoster.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Recording of the SQL statements Hibernate sends to the database from one thread, from the moment it is started until
+ * it is closed. It counts the statements, adds up the time the database took to execute them and counts how many
+ * times each statement shape was sent, where a shape is the statement with its literals and lists of parameters
+ * collapsed. The same shape sent again and again for one request is how an N+1 query shows up.
+ * <p>
+ * Statements are counted when Hibernate prepares them, so a JDBC batch counts once. Recordings can be nested, every
+ * recording open on the thread sees the statements. A request is recorded by the SqlStatementFilter, and tests can
+ * pin the statements of the code they call:
+ * <pre>
+ * try (SqlStatements statements = SqlStatements.record()) {
+ *     mockMvc.perform(get("/images/1/title"));
+ *     statements.assertCount(4).assertNoRepeatedStatements(1);
+ * }
+ * </pre>
+ */
+public class SqlStatements implements AutoCloseable {
+    //Recordings open on each thread, the inspector and the session listener do nothing while there is none
+    private static final ThreadLocal<List<SqlStatements>> RECORDINGS = ThreadLocal.withInitial(ArrayList::new);
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern ROW_LIST = Pattern.compile("\\(\\?\\)(?:\\s*,\\s*\\(\\?\\))+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final Map<String, Integer> shapes = new LinkedHashMap<>();
+    private int count;
+    private long timeNanos;
+    private boolean open = true;
+
+    private SqlStatements() {
+    }
+
+    /**
+     * Start recording the statements sent from the current thread. The recording must be closed on the same thread.
+     *
+     * @return SqlStatements
+     */
+    public static SqlStatements record() {
+        final SqlStatements recording = new SqlStatements();
+        RECORDINGS.get().add(recording);
+        return recording;
+    }
+
+    /**
+     * Whether any recording is open on the current thread.
+     *
+     * @return boolean
+     */
+    public static boolean isRecording() {
+        return !RECORDINGS.get().isEmpty();
+    }
+
+    /**
+     * Count a statement in every recording open on the current thread.
+     *
+     * @param sql - String
+     */
+    static void statementPrepared(final String sql) {
+        final List<SqlStatements> recordings = RECORDINGS.get();
+        if (recordings.isEmpty()) {
+            return;
+        }
+        final String shape = shape(sql);
+        for (final SqlStatements recording : recordings) {
+            recording.count++;
+            recording.shapes.merge(shape, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Add the time the database took to execute a statement or batch to every recording open on the current thread.
+     *
+     * @param nanos - long
+     */
+    static void statementExecuted(final long nanos) {
+        for (final SqlStatements recording : RECORDINGS.get()) {
+            recording.timeNanos += nanos;
+        }
+    }
+
+    //The statement with its literals replaced by parameters, lists of parameters collapsed to one and its whitespace
+    // collapsed, so statements differing only by their values or by the length of an IN list have the same shape
+    static String shape(final String sql) {
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = PARAMETER_LIST.matcher(shape).replaceAll("(?)");
+        shape = ROW_LIST.matcher(shape).replaceAll("(?)");
+        return WHITESPACE.matcher(shape).replaceAll(" ").trim();
+    }
+
+    /**
+     * Stop recording. Closing a recording that is already closed does nothing.
+     */
+    @Override
+    public void close() {
+        if (open) {
+            open = false;
+            final List<SqlStatements> recordings = RECORDINGS.get();
+            recordings.remove(this);
+            if (recordings.isEmpty()) {
+                RECORDINGS.remove();
+            }
+        }
+    }
+
+    /**
+     * Number of statements prepared.
+     *
+     * @return int
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Time the database took to execute the statements.
+     *
+     * @return long, in nanoseconds
+     */
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    /**
+     * Time the database took to execute the statements.
+     *
+     * @return long, in milliseconds
+     */
+    public long getTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(timeNanos);
+    }
+
+    /**
+     * Number of statements of each shape, in the order the shapes were first seen.
+     *
+     * @return Map<String, Integer>
+     */
+    public Map<String, Integer> getShapes() {
+        return Collections.unmodifiableMap(shapes);
+    }
+
+    /**
+     * Shape sent the most times, the first one seen among those sent as many times.
+     *
+     * @return Map.Entry<String, Integer>, null if no statement was recorded
+     */
+    public Map.Entry<String, Integer> getMostRepeatedShape() {
+        Map.Entry<String, Integer> mostRepeated = null;
+        for (final Map.Entry<String, Integer> shape : shapes.entrySet()) {
+            if (mostRepeated == null || shape.getValue() > mostRepeated.getValue()) {
+                mostRepeated = shape;
+            }
+        }
+        return mostRepeated;
+    }
+
+    /**
+     * Fail unless exactly the expected number of statements was recorded.
+     *
+     * @param expected - int
+     *
+     * @return SqlStatements, this recording for further assertions
+     */
+    public SqlStatements assertCount(final int expected) {
+        if (count != expected) {
+            throw new AssertionError("Expected " + expected + " SQL statements but " + count + " were sent\n"
+                                     + describeShapes());
+        }
+        return this;
+    }
+
+    /**
+     * Fail if more than the maximum number of statements was recorded.
+     *
+     * @param max - int
+     *
+     * @return SqlStatements, this recording for further assertions
+     */
+    public SqlStatements assertAtMost(final int max) {
+        if (count > max) {
+            throw new AssertionError("Expected at most " + max + " SQL statements but " + count + " were sent\n"
+                                     + describeShapes());
+        }
+        return this;
+    }
+
+    /**
+     * Fail if any statement shape was sent more than the maximum number of times, which is how an N+1 query shows up.
+     *
+     * @param max - int, times each shape may be sent
+     *
+     * @return SqlStatements, this recording for further assertions
+     */
+    public SqlStatements assertNoRepeatedStatements(final int max) {
+        final Map.Entry<String, Integer> mostRepeated = getMostRepeatedShape();
+        if (mostRepeated != null && mostRepeated.getValue() > max) {
+            throw new AssertionError("Expected each SQL statement at most " + max + " times but this one was sent "
+                                     + mostRepeated.getValue() + " times: " + mostRepeated.getKey());
+        }
+        return this;
+    }
+
+    private String describeShapes() {
+        final StringBuilder description = new StringBuilder();
+        for (final Map.Entry<String, Integer> shape : shapes.entrySet()) {
+            description.append("  ").append(shape.getValue()).append(" x ").append(shape.getKey()).append('\n');
+        }
+        return description.toString();
+    }
+}
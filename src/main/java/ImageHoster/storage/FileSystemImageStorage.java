@@ -0,0 +1,130 @@
+package ImageHoster.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed {@link ImageStorage} on the local file system. The key of an image is the hex SHA-256 of its
+ * bytes and the file lives at {@code root/ab/cd/abcd...}, so identical uploads end up in the same file.
+ */
+@Slf4j
+public class FileSystemImageStorage implements ImageStorage {
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path root;
+    private final Path tmp;
+
+    public FileSystemImageStorage(final Path root) {
+        this.root = root.toAbsolutePath();
+        tmp = this.root.resolve("tmp");
+        try {
+            Files.createDirectories(tmp);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Unable to create image store at " + this.root, e);
+        }
+    }
+
+    @Override
+    public StoredImage store(final InputStream content, final long maxSize) throws IOException {
+        final MessageDigest digest = sha256();
+        final Path staged = Files.createTempFile(tmp, "upload-", ".part");
+        try {
+            final long size = copy(content, staged, digest, maxSize);
+            final String key = toHex(digest.digest());
+            final Path target = resolve(key);
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (final FileAlreadyExistsException e) {
+                    log.debug("Image {} was stored concurrently", key);
+                }
+            }
+            return new StoredImage(key, size);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    @Override
+    public InputStream open(final String key) throws IOException {
+        return Files.newInputStream(resolve(key));
+    }
+
+    @Override
+    public Optional<Path> localPath(final String key) {
+        return Optional.of(resolve(key));
+    }
+
+    @Override
+    public long size(final String key) throws IOException {
+        return Files.size(resolve(key));
+    }
+
+    @Override
+    public boolean exists(final String key) {
+        return Files.exists(resolve(key));
+    }
+
+    @Override
+    public void delete(final String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    //Hashes and counts the bytes while they are written, so the content is read exactly once
+    private long copy(final InputStream content, final Path target, final MessageDigest digest, final long maxSize)
+            throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                size += read;
+                if (size > maxSize) {
+                    throw new ImageTooLargeException(maxSize);
+                }
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+            }
+        }
+        return size;
+    }
+
+    private Path resolve(final String key) {
+        if (key == null || !KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid image key: " + key);
+        }
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
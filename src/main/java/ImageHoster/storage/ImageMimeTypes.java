@@ -0,0 +1,37 @@
+package ImageHoster.storage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Mime types of the image files that are served inline. Only raster formats a browser can do nothing with but draw
+ * are on the list. Anything else an upload claims to be, SVG included since it can carry script, is served as a
+ * download so it never runs as a document on our origin.
+ */
+public final class ImageMimeTypes {
+    private static final Set<String> INLINE = Collections.unmodifiableSet(new HashSet<>(
+            Arrays.asList("image/jpeg", "image/png", "image/gif", "image/webp")));
+
+    private ImageMimeTypes() {
+    }
+
+    /**
+     * The mime type without its parameters and in lower case, if it is one of the types served inline.
+     *
+     * @param mimeType - String, may be null
+     *
+     * @return String, null if the type is not served inline
+     */
+    public static String inlineType(final String mimeType) {
+        if (mimeType == null) {
+            return null;
+        }
+        final int parameters = mimeType.indexOf(';');
+        final String type = parameters < 0 ? mimeType : mimeType.substring(0, parameters);
+        final String normalized = type.trim().toLowerCase(Locale.ROOT);
+        return INLINE.contains(normalized) ? normalized : null;
+    }
+}
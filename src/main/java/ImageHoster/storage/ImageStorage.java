@@ -0,0 +1,70 @@
+package ImageHoster.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Storage for the raw bytes of uploaded images. The database only keeps the key returned by {@link #store}, so the
+ * backing store can be swapped without touching the {@code images} table.
+ */
+public interface ImageStorage {
+
+    /**
+     * Store the content and return the key under which it can be read back. The content is streamed through a fixed
+     * size buffer, so storing does not hold the image on the heap.
+     *
+     * @param content - InputStream, read to the end but not closed
+     * @param maxSize - long, the most bytes accepted before giving up with {@link ImageTooLargeException}
+     *
+     * @return StoredImage
+     */
+    StoredImage store(InputStream content, long maxSize) throws IOException;
+
+    /**
+     * Open the content stored under the key.
+     *
+     * @param key - String
+     *
+     * @return InputStream
+     */
+    InputStream open(String key) throws IOException;
+
+    /**
+     * Resolve the key to a file on the local disk, for storages that keep one. Callers use it to hand the file to the
+     * servlet container for a zero-copy transfer and fall back to {@link #open} otherwise.
+     *
+     * @param key - String
+     *
+     * @return Optional<Path>
+     */
+    default Optional<Path> localPath(final String key) {
+        return Optional.empty();
+    }
+
+    /**
+     * Size in bytes of the content stored under the key.
+     *
+     * @param key - String
+     *
+     * @return long
+     */
+    long size(String key) throws IOException;
+
+    /**
+     * Check whether content is stored under the key.
+     *
+     * @param key - String
+     *
+     * @return boolean
+     */
+    boolean exists(String key);
+
+    /**
+     * Remove the content stored under the key. Removing a missing key is a no-op.
+     *
+     * @param key - String
+     */
+    void delete(String key) throws IOException;
+}
@@ -0,0 +1,18 @@
+package ImageHoster.storage;
+
+import lombok.Getter;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an image is bigger than the configured upload limit. Nothing is kept in the storage when it is thrown.
+ */
+@Getter
+public class ImageTooLargeException extends IOException {
+    private final long maxSize;
+
+    public ImageTooLargeException(final long maxSize) {
+        super("Image is larger than " + maxSize + " bytes");
+        this.maxSize = maxSize;
+    }
+}
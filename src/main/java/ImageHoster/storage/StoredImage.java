@@ -0,0 +1,12 @@
+package ImageHoster.storage;
+
+import lombok.Value;
+
+/**
+ * Result of writing an image to {@link ImageStorage}.
+ */
+@Value
+public class StoredImage {
+    String key;
+    long size;
+}
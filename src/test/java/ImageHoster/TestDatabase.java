@@ -0,0 +1,47 @@
+package ImageHoster;
+
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+//Creates the database named by 'spring.datasource.url' before the application context of an integration test starts,
+// when it does not exist yet. Hibernate then creates its tables like on a fresh install
+public class TestDatabase implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+    private static final String DUPLICATE_DATABASE = "42P04";
+
+    @Override
+    public void initialize(final ConfigurableApplicationContext context) {
+        final Environment environment = context.getEnvironment();
+        final String url = environment.getRequiredProperty("spring.datasource.url");
+        final int slash = url.lastIndexOf('/');
+        final String database = url.substring(slash + 1);
+        //Databases are created from the maintenance database of the same server
+        final String maintenanceUrl = url.substring(0, slash + 1) + "postgres";
+        final String username = environment.getProperty("spring.datasource.username");
+        final String password = environment.getProperty("spring.datasource.password");
+        try (Connection connection = DriverManager.getConnection(maintenanceUrl, username, password);
+             PreparedStatement exists = connection.prepareStatement("SELECT 1 FROM pg_database WHERE datname = ?")) {
+            exists.setString(1, database);
+            try (ResultSet resultSet = exists.executeQuery()) {
+                if (resultSet.next()) {
+                    return;
+                }
+            }
+            try (Statement create = connection.createStatement()) {
+                create.execute("CREATE DATABASE \"" + database + "\"");
+            }
+        } catch (final SQLException e) {
+            //Another test run created it meanwhile
+            if (!DUPLICATE_DATABASE.equals(e.getSQLState())) {
+                throw new IllegalStateException("Could not create the test database " + database, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package ImageHoster.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+    private static final int USERNAMES = 100_000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    @Test
+    public void isSizedForTheExpectedNumberOfValuesAndRate() {
+        final BloomFilter filter = new BloomFilter(USERNAMES, FALSE_POSITIVE_RATE);
+
+        //About 9.6 bits and 7 hashes a value for 1%, the bits rounded up to whole 64-bit words
+        assertEquals(119_816, filter.sizeInBytes());
+        assertEquals(7, filter.hashCount());
+    }
+
+    @Test
+    public void neverForgetsAnAddedValue() {
+        final BloomFilter filter = new BloomFilter(USERNAMES, FALSE_POSITIVE_RATE);
+        for (int i = 0; i < USERNAMES; i++) {
+            filter.add("user" + i);
+        }
+
+        for (int i = 0; i < USERNAMES; i++) {
+            assertTrue("user" + i, filter.mightContain("user" + i));
+        }
+    }
+
+    @Test
+    public void wronglyAnswersMaybeAtAboutTheConfiguredRate() {
+        final BloomFilter filter = new BloomFilter(USERNAMES, FALSE_POSITIVE_RATE);
+        for (int i = 0; i < USERNAMES; i++) {
+            filter.add("user" + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < USERNAMES; i++) {
+            if (filter.mightContain("other" + i)) {
+                falsePositives++;
+            }
+        }
+        final double rate = (double) falsePositives / USERNAMES;
+        assertTrue("False positive rate " + rate, rate > 0.0075 && rate < 0.0125);
+        assertEquals(FALSE_POSITIVE_RATE, filter.expectedFalsePositiveRate(), 0.001);
+    }
+
+    @Test
+    public void emptyFilterContainsNothing() {
+        final BloomFilter filter = new BloomFilter(USERNAMES, FALSE_POSITIVE_RATE);
+
+        assertFalse(filter.mightContain("bob"));
+        assertEquals(0, filter.approximateSize());
+        assertEquals(0, filter.expectedFalsePositiveRate(), 0);
+    }
+
+    @Test
+    public void countsValuesAddedOnce() {
+        final BloomFilter filter = new BloomFilter(USERNAMES, FALSE_POSITIVE_RATE);
+        filter.add("bob");
+        filter.add("alice");
+        filter.add("bob");
+
+        assertEquals(2, filter.approximateSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsARateOutsideZeroAndOne() {
+        new BloomFilter(USERNAMES, 1);
+    }
+}
@@ -0,0 +1,165 @@
+package ImageHoster.controller;
+
+import ImageHoster.TestDatabase;
+import ImageHoster.model.Comment;
+import ImageHoster.model.Image;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.service.CommentService;
+import ImageHoster.service.ImageService;
+import ImageHoster.service.TagService;
+import ImageHoster.service.UserService;
+import ImageHoster.sql.SqlStatements;
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+import javax.servlet.http.Cookie;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+//Pins the SQL statements sent to render the image page and the gallery, so a change that adds a query per tag,
+// comment or image shows up here. Runs against the test database, the user and image written for each test are
+// deleted after it, the tags are kept and reused by the following tests
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+@ContextConfiguration(initializers = TestDatabase.class)
+@AutoConfigureMockMvc
+public class ImageControllerQueryCountTest {
+    private static final String TITLE = "Query count";
+    private static final String USERNAME = "querycount";
+    private static final String PASSWORD = "pass1@";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private TagService tagService;
+
+    @Autowired
+    private CommentService commentService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    private Cookie sessionCookie;
+    private User user;
+    private Image image;
+
+    @Before
+    public void setUp() throws Exception {
+        user = registerUser();
+        image = uploadImage();
+        for (int i = 0; i < 3; i++) {
+            saveComment("Comment " + i);
+        }
+        //The HTTP session is kept by Spring Session, so the test logs in for a session cookie
+        sessionCookie = mockMvc.perform(post("/users/login").param("username", user.getUsername())
+                                                            .param("password", PASSWORD))
+                               .andReturn().getResponse().getCookie("SESSION");
+        entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAllRegions();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mockMvc.perform(post("/users/logout").cookie(sessionCookie));
+        imageService.deleteImage(image.getId());
+        transactionTemplate.execute(status -> {
+            em.remove(em.find(User.class, user.getId()));
+            return null;
+        });
+    }
+
+    @Test
+    public void imagePageReadsTheImageItsTagsAndItsCommentsOnce() throws Exception {
+        try (SqlStatements statements = SqlStatements.record()) {
+            mockMvc.perform(get("/images/{id}/{title}", image.getId(), TITLE).cookie(sessionCookie))
+                   .andExpect(status().isOk());
+            statements.assertCount(2).assertNoRepeatedStatements(1);
+        }
+    }
+
+    @Test
+    public void renderedImagePageIsServedWithoutStatements() throws Exception {
+        mockMvc.perform(get("/images/{id}/{title}", image.getId(), TITLE).cookie(sessionCookie))
+               .andExpect(status().isOk());
+        try (SqlStatements statements = SqlStatements.record()) {
+            mockMvc.perform(get("/images/{id}/{title}", image.getId(), TITLE).cookie(sessionCookie))
+                   .andExpect(status().isOk());
+            statements.assertCount(0);
+        }
+    }
+
+    @Test
+    public void galleryPageIsReadWithOneStatement() throws Exception {
+        try (SqlStatements statements = SqlStatements.record()) {
+            mockMvc.perform(get("/images").cookie(sessionCookie))
+                   .andExpect(status().isOk());
+            statements.assertCount(1);
+        }
+    }
+
+    private User registerUser() {
+        final User user = new User();
+        user.setUsername(USERNAME);
+        user.setPassword(PASSWORD);
+        final UserProfile profile = new UserProfile();
+        profile.setFullName("Query count");
+        user.setProfile(profile);
+        assertTrue("User " + USERNAME + " was left by an interrupted run", userService.registerUser(user));
+        return user;
+    }
+
+    private Image uploadImage() {
+        final Image image = new Image();
+        image.setTitle(TITLE);
+        image.setDescription("Written by ImageControllerQueryCountTest");
+        image.setDate(new Date());
+        image.setUser(user);
+        image.setTags(tagService.getOrCreateTags(Arrays.asList("querycount1", "querycount2", "querycount3")));
+        imageService.uploadImage(image);
+        return image;
+    }
+
+    private void saveComment(final String text) {
+        final Comment comment = new Comment();
+        comment.setText(text);
+        comment.setCreatedDate(LocalDate.now());
+        comment.setUser(user);
+        comment.setImage(image);
+        commentService.saveComment(comment);
+    }
+}
@@ -0,0 +1,149 @@
+package ImageHoster.search;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InvertedIndexTest {
+
+    @Test
+    public void searchFindsTheDocumentsContainingEveryTerm() {
+        final InvertedIndex index = new InvertedIndex();
+        index.put(1, terms("red", 1, "car", 1));
+        index.put(2, terms("red", 1));
+        index.put(3, terms("red", 1, "car", 1));
+        index.put(4, terms("car", 1));
+
+        final InvertedIndex.Hits hits = index.search(Arrays.asList("red", "car"), 0, 10);
+        assertEquals(Arrays.asList(3, 1), hits.getDocumentIds());
+        assertEquals(2, hits.getTotal());
+    }
+
+    @Test
+    public void searchIntersectsListsAddedOutOfOrder() {
+        final InvertedIndex index = new InvertedIndex();
+        for (int documentId = 100; documentId >= 1; documentId--) {
+            index.put(documentId, documentId % 3 == 0 ? terms("common", 1, "third", 1) : terms("common", 1));
+        }
+
+        final InvertedIndex.Hits hits = index.search(Arrays.asList("common", "third"), 0, 100);
+        assertEquals(33, hits.getTotal());
+        for (final Integer documentId : hits.getDocumentIds()) {
+            assertEquals(0, documentId % 3);
+        }
+    }
+
+    @Test
+    public void searchStopsWhenAListRunsOut() {
+        final InvertedIndex index = new InvertedIndex();
+        for (int documentId = 1; documentId <= 50; documentId++) {
+            index.put(documentId, terms("common", 1));
+        }
+        //The rare term is searched first, its last document is past the end of the list of the common term
+        index.put(5, terms("common", 1, "rare", 1));
+        index.put(100, terms("rare", 1));
+
+        final InvertedIndex.Hits hits = index.search(Arrays.asList("common", "rare"), 0, 10);
+        assertEquals(Collections.singletonList(5), hits.getDocumentIds());
+        assertEquals(1, hits.getTotal());
+    }
+
+    @Test
+    public void searchFindsNothingForAnUnknownTermOrNoTerms() {
+        final InvertedIndex index = new InvertedIndex();
+        index.put(1, terms("red", 1));
+
+        final InvertedIndex.Hits unknown = index.search(Arrays.asList("red", "blue"), 0, 10);
+        assertTrue(unknown.getDocumentIds().isEmpty());
+        assertEquals(0, unknown.getTotal());
+        final InvertedIndex.Hits none = index.search(Collections.emptyList(), 0, 10);
+        assertTrue(none.getDocumentIds().isEmpty());
+        assertEquals(0, none.getTotal());
+    }
+
+    @Test
+    public void searchRanksByWeightAndBreaksTiesByHighestId() {
+        final InvertedIndex index = new InvertedIndex();
+        index.put(1, terms("cat", 1));
+        index.put(2, terms("cat", 3));
+        index.put(3, terms("cat", 2));
+        index.put(4, terms("cat", 1));
+
+        assertEquals(Arrays.asList(2, 3, 4, 1), index.search(Collections.singletonList("cat"), 0, 10)
+                                                     .getDocumentIds());
+    }
+
+    @Test
+    public void searchWeighsRareTermsMoreThanCommonOnes() {
+        final InvertedIndex index = new InvertedIndex();
+        //Summed without the inverse document frequency, document 1 would score 4 and document 2 only 3
+        index.put(1, terms("common", 3, "rare", 1));
+        index.put(2, terms("common", 1, "rare", 2));
+        for (int documentId = 3; documentId <= 10; documentId++) {
+            index.put(documentId, terms("common", 1));
+        }
+
+        assertEquals(Arrays.asList(2, 1), index.search(Arrays.asList("common", "rare"), 0, 10).getDocumentIds());
+    }
+
+    @Test
+    public void searchSkipsTheOffsetAndReturnsAtMostTheLimit() {
+        final InvertedIndex index = new InvertedIndex();
+        for (int documentId = 1; documentId <= 5; documentId++) {
+            index.put(documentId, terms("dog", 10 - documentId));
+        }
+
+        final InvertedIndex.Hits page = index.search(Collections.singletonList("dog"), 2, 2);
+        assertEquals(Arrays.asList(3, 4), page.getDocumentIds());
+        assertEquals(5, page.getTotal());
+        final InvertedIndex.Hits last = index.search(Collections.singletonList("dog"), 4, 2);
+        assertEquals(Collections.singletonList(5), last.getDocumentIds());
+        final InvertedIndex.Hits beyond = index.search(Collections.singletonList("dog"), 10, 2);
+        assertTrue(beyond.getDocumentIds().isEmpty());
+        assertEquals(5, beyond.getTotal());
+    }
+
+    @Test
+    public void removedDocumentsAreNotFound() {
+        final InvertedIndex index = new InvertedIndex();
+        index.put(1, terms("red", 1, "car", 1));
+        index.put(2, terms("red", 1));
+
+        index.remove(1);
+        assertEquals(1, index.size());
+        assertEquals(Collections.singletonList(2), index.search(Collections.singletonList("red"), 0, 10)
+                                                        .getDocumentIds());
+        assertEquals(0, index.search(Collections.singletonList("car"), 0, 10).getTotal());
+
+        index.remove(2);
+        index.remove(3);
+        assertEquals(0, index.size());
+        assertEquals(0, index.search(Collections.singletonList("red"), 0, 10).getTotal());
+    }
+
+    @Test
+    public void putReplacesTheTermsOfADocument() {
+        final InvertedIndex index = new InvertedIndex();
+        index.put(1, terms("old", 1));
+        index.put(1, terms("new", 1));
+
+        assertEquals(1, index.size());
+        assertEquals(0, index.search(Collections.singletonList("old"), 0, 10).getTotal());
+        assertEquals(Collections.singletonList(1), index.search(Collections.singletonList("new"), 0, 10)
+                                                        .getDocumentIds());
+    }
+
+    private static Map<String, Integer> terms(final Object... termsAndWeights) {
+        final Map<String, Integer> terms = new HashMap<>();
+        for (int i = 0; i < termsAndWeights.length; i += 2) {
+            terms.put((String) termsAndWeights[i], (Integer) termsAndWeights[i + 1]);
+        }
+        return terms;
+    }
+}
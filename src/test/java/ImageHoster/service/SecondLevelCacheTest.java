@@ -0,0 +1,172 @@
+package ImageHoster.service;
+
+import ImageHoster.TestDatabase;
+import ImageHoster.model.Comment;
+import ImageHoster.model.Image;
+import ImageHoster.model.Tag;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//Checks that writing comments and tags drops what the second-level cache holds for them, from the hits and misses
+// counted by the Hibernate statistics. Runs against the test database, the user and images written for each test are
+// deleted after it, the tag is kept and reused by the following tests
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+@ContextConfiguration(initializers = TestDatabase.class)
+public class SecondLevelCacheTest {
+    private static final String TAG = "secondlevelcache";
+    private static final String USERNAME = "secondlevelcache";
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private TagService tagService;
+
+    @Autowired
+    private CommentService commentService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    private Statistics statistics;
+    private User user;
+    private final List<Image> images = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        user = registerUser();
+        images.add(uploadImage("Second-level cache"));
+        final SessionFactory sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        sessionFactory.getCache().evictAllRegions();
+        statistics = sessionFactory.getStatistics();
+        statistics.clear();
+    }
+
+    @After
+    public void tearDown() {
+        images.forEach(image -> imageService.deleteImage(image.getId()));
+        transactionTemplate.execute(status -> {
+            em.remove(em.find(User.class, user.getId()));
+            return null;
+        });
+    }
+
+    @Test
+    public void savingACommentDropsTheCachedCommentsOfImages() {
+        final Image image = images.get(0);
+        saveComment(image, "First");
+
+        assertEquals(1, commentService.getCommentsForImage(image, null).getItems().size());
+        //The query region is created by its first query
+        final CacheRegionStatistics comments = statistics.getQueryRegionStatistics("commentsForImage");
+        assertEquals(1, comments.getMissCount());
+        assertEquals(0, comments.getHitCount());
+        assertEquals(1, commentService.getCommentsForImage(image, null).getItems().size());
+        assertEquals(1, comments.getMissCount());
+        assertEquals(1, comments.getHitCount());
+
+        saveComment(image, "Second");
+        final List<Comment> afterWrite = commentService.getCommentsForImage(image, null).getItems();
+        assertEquals(2, comments.getMissCount());
+        assertEquals(1, comments.getHitCount());
+        assertEquals(2, afterWrite.size());
+        assertEquals("Second", afterWrite.get(0).getText());
+    }
+
+    @Test
+    public void countingTheImagesOfATagDropsTheCachedTags() {
+        final Integer tagId = tagService.getTagByName(TAG).getId();
+        final CacheRegionStatistics tags = statistics.getDomainDataRegionStatistics("tags");
+
+        final int imageCount = findTag(tagId).getImageCount();
+        assertEquals(1, tags.getMissCount());
+        assertEquals(0, tags.getHitCount());
+        assertEquals(imageCount, findTag(tagId).getImageCount());
+        assertEquals(1, tags.getMissCount());
+        assertEquals(1, tags.getHitCount());
+
+        //Uploading an image with the tag counts it on the tag with a native update of the tags table
+        images.add(uploadImage("Second-level cache 2"));
+        final long missesBeforeRead = tags.getMissCount();
+        assertEquals(imageCount + 1, findTag(tagId).getImageCount());
+        assertEquals(missesBeforeRead + 1, tags.getMissCount());
+        assertEquals(1, tags.getHitCount());
+    }
+
+    private User registerUser() {
+        final User user = new User();
+        user.setUsername(USERNAME);
+        user.setPassword("pass1@");
+        final UserProfile profile = new UserProfile();
+        profile.setFullName("Second-level cache");
+        user.setProfile(profile);
+        assertTrue("User " + USERNAME + " was left by an interrupted run", userService.registerUser(user));
+        return user;
+    }
+
+    private Image uploadImage(final String title) {
+        final Image image = new Image();
+        image.setTitle(title);
+        image.setDescription("Written by SecondLevelCacheTest");
+        image.setDate(new Date());
+        image.setUser(user);
+        image.setTags(tagService.getOrCreateTags(Collections.singletonList(TAG)));
+        imageService.uploadImage(image);
+        return image;
+    }
+
+    private void saveComment(final Image image, final String text) {
+        final Comment comment = new Comment();
+        comment.setText(text);
+        comment.setCreatedDate(LocalDate.now());
+        comment.setUser(user);
+        comment.setImage(image);
+        commentService.saveComment(comment);
+    }
+
+    //Each lookup has a persistence context of its own, so only the second-level cache can answer it
+    private Tag findTag(final Integer tagId) {
+        final EntityManager em = entityManagerFactory.createEntityManager();
+        try {
+            return em.find(Tag.class, tagId);
+        } finally {
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package ImageHoster.sql;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SqlStatementsTest {
+
+    @Test
+    public void shapeCollapsesInListsOfAnyLength() {
+        assertEquals("select t.id from tags t where t.normalized_name in (?)",
+                     SqlStatements.shape("select t.id from tags t where t.normalized_name in (?, ?, ?)"));
+        assertEquals(SqlStatements.shape("select * from images where id in (?)"),
+                     SqlStatements.shape("select * from images where id in (?,?,?,?,?,?,?,?)"));
+    }
+
+    @Test
+    public void shapeCollapsesValuesRows() {
+        assertEquals("insert into image_blobs (storage_key, ref_count) values (?) on conflict (storage_key) do nothing",
+                     SqlStatements.shape("insert into image_blobs (storage_key, ref_count) values (?, ?), (?, ?), "
+                                         + "(?, ?) on conflict (storage_key) do nothing"));
+        assertEquals(SqlStatements.shape("update tags set image_count = image_count + c.images from (values (?, ?)) "
+                                         + "as c(id, images) where tags.id = c.id"),
+                     SqlStatements.shape("update tags set image_count = image_count + c.images from (values (?, ?), "
+                                         + "(?, ?), (?, ?)) as c(id, images) where tags.id = c.id"));
+    }
+
+    @Test
+    public void shapeReplacesLiterals() {
+        assertEquals("select * from users where username = ? and id > ? limit ?",
+                     SqlStatements.shape("select * from users where username = 'bob' and id > 42 limit 10"));
+        assertEquals("select * from users where username = ?",
+                     SqlStatements.shape("select * from users where username = 'o''brien'"));
+        assertEquals("select * from images where id in (?)",
+                     SqlStatements.shape("select * from images where id in (1, 2, 3)"));
+    }
+
+    @Test
+    public void shapeKeepsDigitsOfIdentifiers() {
+        assertEquals("select image0_.id as id1_2_ from images image0_ where image0_.id = ?",
+                     SqlStatements.shape("select image0_.id as id1_2_ from images image0_ where image0_.id = ?"));
+    }
+
+    @Test
+    public void shapeCollapsesWhitespace() {
+        assertEquals("select * from images where id = ?",
+                     SqlStatements.shape("  select *\n    from images\n\twhere id = ?  "));
+    }
+
+    @Test
+    public void recordingCountsStatementsByShape() {
+        try (SqlStatements statements = SqlStatements.record()) {
+            SqlStatements.statementPrepared("select * from comments where image_id = 1");
+            SqlStatements.statementPrepared("select * from comments where image_id = 2");
+            SqlStatements.statementPrepared("select * from images where id = ?");
+            SqlStatements.statementExecuted(2_000_000);
+
+            assertEquals(3, statements.getCount());
+            assertEquals(2, statements.getTimeMillis());
+            assertEquals(2, statements.getShapes().size());
+            final Map.Entry<String, Integer> mostRepeated = statements.getMostRepeatedShape();
+            assertEquals("select * from comments where image_id = ?", mostRepeated.getKey());
+            assertEquals(2, (int) mostRepeated.getValue());
+        }
+    }
+
+    @Test
+    public void nestedRecordingsBothSeeTheStatements() {
+        try (SqlStatements outer = SqlStatements.record()) {
+            SqlStatements.statementPrepared("select 1");
+            try (SqlStatements inner = SqlStatements.record()) {
+                SqlStatements.statementPrepared("select 2");
+                assertEquals(1, inner.getCount());
+            }
+            assertEquals(2, outer.getCount());
+        }
+        assertFalse(SqlStatements.isRecording());
+    }
+
+    @Test
+    public void statementsAreNotCountedAfterTheRecordingIsClosed() {
+        final SqlStatements statements = SqlStatements.record();
+        assertTrue(SqlStatements.isRecording());
+        statements.close();
+        SqlStatements.statementPrepared("select 1");
+        assertEquals(0, statements.getCount());
+        assertNull(statements.getMostRepeatedShape());
+    }
+
+    @Test
+    public void assertionsPassWithinTheLimits() {
+        try (SqlStatements statements = SqlStatements.record()) {
+            SqlStatements.statementPrepared("select * from comments where image_id = 1");
+            SqlStatements.statementPrepared("select * from comments where image_id = 2");
+            statements.assertCount(2).assertAtMost(2).assertNoRepeatedStatements(2);
+        }
+    }
+
+    @Test
+    public void assertCountFailsOnAnotherCount() {
+        try (SqlStatements statements = SqlStatements.record()) {
+            SqlStatements.statementPrepared("select 1");
+            statements.assertCount(2);
+            fail("The count was not checked");
+        } catch (final AssertionError e) {
+            assertTrue(e.getMessage().startsWith("Expected 2 SQL statements but 1 were sent"));
+        }
+    }
+
+    @Test
+    public void assertAtMostFailsAboveTheMaximum() {
+        try (SqlStatements statements = SqlStatements.record()) {
+            SqlStatements.statementPrepared("select 1");
+            SqlStatements.statementPrepared("select 2");
+            statements.assertAtMost(1);
+            fail("The maximum was not checked");
+        } catch (final AssertionError e) {
+            assertTrue(e.getMessage().startsWith("Expected at most 1 SQL statements but 2 were sent"));
+        }
+    }
+
+    @Test
+    public void assertNoRepeatedStatementsFailsOnAnNPlusOneQuery() {
+        try (SqlStatements statements = SqlStatements.record()) {
+            for (int imageId = 1; imageId <= 3; imageId++) {
+                SqlStatements.statementPrepared("select * from comments where image_id = " + imageId);
+            }
+            statements.assertNoRepeatedStatements(1);
+            fail("The repeated statement was not found");
+        } catch (final AssertionError e) {
+            assertEquals("Expected each SQL statement at most 1 times but this one was sent 3 times: "
+                         + "select * from comments where image_id = ?", e.getMessage());
+        }
+    }
+}